@@ -0,0 +1,62 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 布隆过滤器配置（hmdp.bloom-filter.*）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.bloom-filter")
+public class BloomFilterProperties {
+
+    /**
+     * 是否启用，未启用时所有 id 都视为可能存在
+     */
+    private boolean enabled = false;
+
+    /**
+     * 目标误判率
+     */
+    private double fpp = 0.01;
+
+    /**
+     * 每个过滤器位图的内存上限，按预期条数和误判率算出的位数超过上限时截断，实际误判率会升高
+     */
+    private DataSize maxMemory = DataSize.ofMegabytes(64);
+
+    /**
+     * 没有单独配置时每个过滤器的预期条数
+     */
+    private long expectedInsertions = 1000000;
+
+    /**
+     * 按过滤器单独配置预期条数，key 为 shop、blog、user
+     */
+    private Map<String, Long> filters = new HashMap<>();
+
+    /**
+     * 是否在本地保留一份位图，本地判定可能存在时不访问 Redis，判定不存在时仍查 Redis 确认
+     */
+    private boolean localCopy = false;
+
+    /**
+     * 本地位图从 Redis 全量刷新的间隔（毫秒），兜底丢失的 pub/sub 消息
+     */
+    private long localRefreshInterval = 300000;
+
+    /**
+     * 重建时每页从数据库读取的 id 数
+     */
+    private int rebuildPageSize = 5000;
+
+    public long expectedInsertionsOf(String name) {
+        return filters.getOrDefault(name, expectedInsertions);
+    }
+}
@@ -0,0 +1,57 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * CacheClient 配置（hmdp.cache.*）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 缓存未命中时等待同一个 key 的重建结果的最长时间，超时后直接查数据库
+     */
+    private Duration loadTimeout = Duration.ofSeconds(3);
+
+    /**
+     * 写缓存用的编码，json（旧格式，不带版本头）或 smile；读取时按版本头识别，不受这个配置影响。
+     * 滚动升级时先全部升级到能识别版本头的版本，再切换编码
+     */
+    private String codec = "json";
+
+    /**
+     * 二进制编码后超过这个大小才压缩，0 表示不压缩
+     */
+    private DataSize compressThreshold = DataSize.ofKilobytes(1);
+
+    /**
+     * 本地一级缓存
+     */
+    private Local local = new Local();
+
+    @Data
+    public static class Local {
+
+        /**
+         * 是否启用本地一级缓存
+         */
+        private boolean enabled = false;
+
+        /**
+         * 最多缓存的 key 数，超过后按 W-TinyLFU 淘汰
+         */
+        private long maximumSize = 10000;
+
+        /**
+         * 写入后多久过期，也是失效消息丢失时读到旧值的最长时间
+         */
+        private Duration ttl = Duration.ofSeconds(10);
+    }
+}
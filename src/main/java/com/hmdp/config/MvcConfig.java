@@ -1,13 +1,18 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.RedisScriptRegistry;
 import com.hmdp.utils.RefreahInterceptor;
+import com.hmdp.utils.WaitingRoom;
+import com.hmdp.utils.WaitingRoomInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.stream.Collectors;
 
 /**
  * 启用拦截器
@@ -17,6 +22,19 @@ public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Resource
+    private RateLimitProperties rateLimitProperties;
+
+    @Resource
+    private WaitingRoomProperties waitingRoomProperties;
+
+    @Resource
+    private WaitingRoom waitingRoom;
+
     @Override
     //什么时候调用？
     //Spring Boot 启动时
@@ -35,5 +53,19 @@ public class MvcConfig implements WebMvcConfigurer {
                 ).order(1);
         //拦截全部路径的，用来刷新Redis有效期(优先级高于登录拦截器)
         registry.addInterceptor(new RefreahInterceptor(stringRedisTemplate)).order(0);
+        //排队放行拦截器，只拦截秒杀下单；没有放行令牌的请求只验签就拒绝，排在限流之前
+        if (waitingRoomProperties.isEnabled()) {
+            registry.addInterceptor(new WaitingRoomInterceptor(waitingRoom))
+                    .addPathPatterns("/voucher-order/seckill/*")
+                    .order(2);
+        }
+        //限流拦截器，只拦截配置了规则的接口；排在登录拦截器之后，未登录的请求直接 401，不占用限流的 Redis 调用
+        if (rateLimitProperties.isEnabled() && !rateLimitProperties.getRoutes().isEmpty()) {
+            registry.addInterceptor(new RateLimitInterceptor(redisScriptRegistry, rateLimitProperties))
+                    .addPathPatterns(rateLimitProperties.getRoutes().stream()
+                            .map(RateLimitProperties.Route::getPattern)
+                            .collect(Collectors.toList()))
+                    .order(3);
+        }
     }
 }
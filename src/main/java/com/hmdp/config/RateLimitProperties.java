@@ -0,0 +1,94 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 接口限流配置（hmdp.rate-limit.*）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.rate-limit")
+public class RateLimitProperties {
+
+    /**
+     * 是否启用限流
+     */
+    private boolean enabled = true;
+
+    /**
+     * 本地预检令牌桶最多保留的个数，超过后按 W-TinyLFU 淘汰
+     */
+    private int localCapacity = 100000;
+
+    /**
+     * 限流规则
+     */
+    private List<Route> routes = new ArrayList<>();
+
+    /**
+     * 绑定配置后校验规则：速率为 0 时令牌永远补不上，等待时间无穷大
+     */
+    @PostConstruct
+    public void validate() {
+        for (Route route : routes) {
+            if (!(route.getUserRate() > 0) || route.getUserBurst() < 1) {
+                throw new IllegalArgumentException("hmdp.rate-limit 规则 " + route.getName()
+                        + " 的 user-rate 必须大于 0、user-burst 不能小于 1");
+            }
+            if (!(route.getTargetRate() > 0) || route.getTargetBurst() < 1) {
+                throw new IllegalArgumentException("hmdp.rate-limit 规则 " + route.getName()
+                        + " 的 target-rate 必须大于 0、target-burst 不能小于 1");
+            }
+        }
+    }
+
+    @Data
+    public static class Route {
+
+        /**
+         * 规则名，用在 Redis key 里
+         */
+        private String name;
+
+        /**
+         * 接口的映射路径，与 Controller 上的写法一致，例如 /voucher-order/seckill/{id}
+         */
+        private String pattern;
+
+        /**
+         * 只限这个 HTTP 方法，例如 POST；为空时所有方法共用这条规则
+         */
+        private String method;
+
+        /**
+         * 每个用户（未登录按 ip）每秒生成的令牌数
+         */
+        private double userRate = 1;
+
+        /**
+         * 每个用户的桶容量，即允许的突发请求数
+         */
+        private int userBurst = 5;
+
+        /**
+         * 再按哪个路径变量单独限流，例如 id 表示每张优惠券一个桶；为空则只按用户限流
+         */
+        private String targetVariable;
+
+        /**
+         * 每个目标每秒生成的令牌数
+         */
+        private double targetRate = 1000;
+
+        /**
+         * 每个目标的桶容量
+         */
+        private int targetBurst = 1000;
+    }
+}
@@ -0,0 +1,45 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BloomFilters;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillSoldOutCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_LAYOUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * Redis pub/sub 订阅
+ */
+@Configuration
+public class RedisConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory, SeckillSoldOutCache seckillSoldOutCache,
+            SeckillOrderStatus seckillOrderStatus, CacheClient cacheClient,
+            BloomFilters bloomFilters, SeckillKeys seckillKeys) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        //秒杀券售罄/补货通知
+        container.addMessageListener(seckillSoldOutCache, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        //秒杀订单状态变化，唤醒长轮询
+        container.addMessageListener(seckillOrderStatus, new ChannelTopic(SECKILL_ORDER_STATUS_CHANNEL));
+        //缓存写入/删除，清掉本地一级缓存
+        container.addMessageListener(cacheClient, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        //布隆过滤器新增/重建，更新本地副本
+        container.addMessageListener(bloomFilters, new ChannelTopic(BLOOM_FILTER_CHANNEL));
+        //秒杀券库存重建，清掉本地缓存的分段数、分桶数
+        container.addMessageListener(seckillKeys, new ChannelTopic(SECKILL_LAYOUT_CHANNEL));
+        return container;
+    }
+}
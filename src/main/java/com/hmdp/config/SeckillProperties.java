@@ -0,0 +1,144 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 秒杀相关配置（hmdp.seckill.*）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 订单消费者每批最多处理的消息数（XREADGROUP COUNT）
+     */
+    private int batchSize = 100;
+
+    /**
+     * 凑批的最长等待时间，拿到第一条消息后最多再等这么久，0 表示不等待
+     */
+    private Duration batchLinger = Duration.ofMillis(50);
+
+    /**
+     * 没有消息时 XREADGROUP 的阻塞时间，也是停止时最多多等的时间
+     */
+    private Duration readBlock = Duration.ofSeconds(2);
+
+    /**
+     * 停止时等待手上批次落库并确认的最长时间
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+
+    /**
+     * 本实例的订单消费线程数，每个线程是消费者组里一个独立的消费者
+     */
+    private int consumerThreads = 1;
+
+    /**
+     * 消费者名前缀，默认取主机名；同一台机器部署多个实例时需要分别配置
+     */
+    private String consumerPrefix;
+
+    /**
+     * stream.orders 的分区数，秒杀脚本按优惠券 id 取模写入对应分区；
+     * 分区号同时是秒杀 key 的 hash tag，修改后已有秒杀券的 key 需要迁移
+     */
+    private int streamPartitions = 1;
+
+    /**
+     * pending 消息空闲超过这么久才会被恢复任务认领，也是重试退避的基数
+     */
+    private Duration recoveryMinIdle = Duration.ofSeconds(30);
+
+    /**
+     * 重试退避的上限
+     */
+    private Duration recoveryMaxBackoff = Duration.ofMinutes(5);
+
+    /**
+     * 最大投递次数，达到后订单已落库的直接确认，没落库的退回库存并转入死信 stream.orders.dlq
+     */
+    private int maxDeliveries = 5;
+
+    /**
+     * 恢复任务每次 XPENDING 读取的 pending 消息数，每轮按这个大小分页扫完整个 pending-list
+     */
+    private int recoveryBatchSize = 100;
+
+    /**
+     * 本地售罄标记的有效期，过期后放一次请求回 Redis 确认
+     */
+    private Duration soldOutTtl = Duration.ofSeconds(10);
+
+    /**
+     * 新建秒杀券时库存拆分的段数，1 表示不分段；已创建的券按创建时的段数扣减。
+     * 各段在同一个 slot，只减少单个 key 上的争用，不会把一张券分散到多个 Redis 节点
+     */
+    private int stockSegments = 1;
+
+    /**
+     * 用户已购件数哈希每桶的平均用户数，按库存分桶；
+     * 低于 Redis hash-max-ziplist-entries（默认 128）时每桶用紧凑编码，比一个大 set 省内存
+     */
+    private int orderBucketUsers = 64;
+
+    /**
+     * 秒杀开始前多久预热到 Redis
+     */
+    private Duration warmUpLead = Duration.ofMinutes(10);
+
+    /**
+     * 秒杀结束后还要对账多久，覆盖结束前最后一批订单的落库
+     */
+    private Duration reconcileGrace = Duration.ofHours(1);
+
+    /**
+     * 对账时每批处理的优惠券数（一条 GROUP BY、一次 pipeline、一条 UPDATE）
+     */
+    private int reconcileBatchSize = 1000;
+
+    /**
+     * 订单落库后多久未支付自动取消，库存退回 Redis
+     */
+    private Duration payTimeout = Duration.ofMinutes(15);
+
+    /**
+     * 取消任务每批处理的订单数（一次 ZRANGEBYSCORE、一条 UPDATE）
+     */
+    private int cancelBatchSize = 500;
+
+    /**
+     * 订单状态长轮询的最长等待时间
+     */
+    private Duration statusWaitTimeout = Duration.ofSeconds(30);
+
+    /**
+     * 本节点同时挂起的长轮询请求上限，超过后直接返回当前状态
+     */
+    private int statusMaxWaiters = 10000;
+
+    /**
+     * 订单 stream 归档文件目录，每个分区一个子目录
+     */
+    private String archiveDir = "archive/stream.orders";
+
+    /**
+     * 已确认的消息在 stream 里至少保留多久才归档裁剪
+     */
+    private Duration archiveRetention = Duration.ofMinutes(10);
+
+    /**
+     * 归档时每次 XRANGE 读取的条数
+     */
+    private int archivePageSize = 1000;
+
+    /**
+     * 每个归档分段文件最多的消息数
+     */
+    private int archiveSegmentSize = 100000;
+}
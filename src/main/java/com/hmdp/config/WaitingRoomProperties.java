@@ -0,0 +1,83 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 秒杀排队配置（hmdp.waiting-room.*）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.waiting-room")
+public class WaitingRoomProperties {
+
+    /**
+     * 是否启用排队；启用后秒杀下单必须带有效的放行令牌
+     */
+    private boolean enabled = false;
+
+    /**
+     * 排队号和放行令牌的签名密钥，多节点部署时必须配置成一样；为空时每次启动随机生成，只适合单节点
+     */
+    private String secret;
+
+    /**
+     * 秒杀开始时直接放行的排队号个数
+     */
+    private long admitBurst = 1000;
+
+    /**
+     * 秒杀开始后每张券每秒放行的排队号个数，0 表示暂停放行（开始时的 admitBurst 个也不放）
+     */
+    private double admitRate = 500;
+
+    /**
+     * 单独配置放行速率的券：优惠券id -> 每秒放行个数，0 表示这张券暂停放行
+     */
+    private Map<Long, Double> voucherRates = new HashMap<>();
+
+    /**
+     * 排队凭证有效期，过期后要重新排队；排队计数器也在第一个号发出后这么久过期
+     */
+    private Duration ticketTtl = Duration.ofDays(1);
+
+    /**
+     * 放行令牌有效期，过期后要重新用排队号换
+     */
+    private Duration admissionTtl = Duration.ofSeconds(30);
+
+    /**
+     * 排队中查询结果的最短、最长缓存时间，按预计等待时间在两者之间取值，客户端据此轮询
+     */
+    private Duration minPollInterval = Duration.ofSeconds(1);
+
+    private Duration maxPollInterval = Duration.ofSeconds(30);
+
+    /**
+     * 绑定配置后校验放行速率
+     */
+    @PostConstruct
+    public void validate() {
+        checkRate("admit-rate", admitRate);
+        voucherRates.forEach((voucherId, rate) -> checkRate("voucher-rates." + voucherId, rate));
+    }
+
+    private static void checkRate(String name, Double rate) {
+        if (rate == null || rate.isNaN() || rate < 0) {
+            throw new IllegalArgumentException("hmdp.waiting-room." + name + " 不能小于 0: " + rate);
+        }
+    }
+
+    /**
+     * 某张券的放行速率
+     */
+    public double rateOf(long voucherId) {
+        return voucherRates.getOrDefault(voucherId, admitRate);
+    }
+}
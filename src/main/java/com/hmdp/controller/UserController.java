@@ -9,6 +9,7 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilters;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -35,6 +36,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private BloomFilters bloomFilters;
+
     /**
      * 发送手机验证码
      */
@@ -92,6 +96,10 @@ public class UserController {
      */
     @GetMapping("{id}")
     public Result queryUserById(@PathVariable("id") Long userId){
+        // 布隆过滤器判定一定不存在的不查库
+        if(!bloomFilters.mightContain(BloomFilters.USER, userId)){
+            return Result.ok();
+        }
         User user = userService.getById(userId);
         if(user == null){
             return Result.ok();
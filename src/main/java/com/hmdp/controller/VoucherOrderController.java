@@ -1,14 +1,23 @@
 package com.hmdp.controller;
 
 
+import com.hmdp.dto.QueuePositionDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.WaitingRoom;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -25,13 +34,63 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private WaitingRoom waitingRoom;
+
     /**
      * 实现秒杀卷下单
      * @param voucherId 秒杀卷id
+     * @param quantity 购买件数，不超过每人限购件数
      * @return
      */
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return voucherOrderService.setkillVoucher(voucherId);
+    public Result seckillVoucher(@PathVariable("id") Long voucherId,
+                                 @RequestParam(value = "quantity", defaultValue = "1") Integer quantity) {
+        return voucherOrderService.setkillVoucher(voucherId, quantity);
+    }
+
+    /**
+     * 秒杀排队取号；启用排队后要先取号，轮到后拿放行令牌下单
+     * @param voucherId 秒杀卷id
+     * @return 排队号、排队凭证，已经轮到时带放行令牌
+     */
+    @PostMapping("seckill/{id}/queue")
+    public Result enqueue(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.enqueue(voucherId);
+    }
+
+    /**
+     * 查询排队进度，只验签和计算，不访问 Redis；排队中的结果可以缓存到下次轮询
+     * @param voucherId 秒杀卷id
+     * @param ticket 取号时返回的排队凭证
+     * @return 预计等待秒数，已经轮到时带放行令牌
+     */
+    @GetMapping("seckill/{id}/queue")
+    public Result queuePosition(@PathVariable("id") Long voucherId,
+                                @RequestParam("ticket") String ticket,
+                                HttpServletResponse response) {
+        Result result = voucherOrderService.queuePosition(voucherId, ticket);
+        QueuePositionDTO position = Boolean.TRUE.equals(result.getSuccess()) ? (QueuePositionDTO) result.getData() : null;
+        if (position != null && position.getAdmissionToken() == null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL,
+                    CacheControl.maxAge(waitingRoom.pollSeconds(position), TimeUnit.SECONDS).cachePrivate().getHeaderValue());
+        } else {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+        }
+        return result;
+    }
+
+    /**
+     * 查询秒杀订单状态：queued 排队中，persisted 已落库，failed 失败，cancelled 超时未支付已取消
+     * @param voucherId 秒杀卷id
+     * @param orderId 下单返回的订单id
+     * @param wait 为 true 时仍在排队则长轮询，状态变化或超时后返回
+     * @return
+     */
+    @GetMapping("seckill/{id}/status/{orderId}")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long voucherId,
+                                                   @PathVariable("orderId") Long orderId,
+                                                   @RequestParam(value = "wait", defaultValue = "false") boolean wait) {
+        return voucherOrderService.queryOrderStatus(voucherId, orderId, wait);
     }
 }
@@ -0,0 +1,61 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 秒杀演练结果
+ */
+@Data
+public class DryRunReport {
+    /**
+     * running 进行中，finished 完成，failed 出错
+     */
+    private String state;
+    private String error;
+    private Long voucherId;
+    private Integer stock;
+    private Integer users;
+    private Integer targetRps;
+    private Integer durationSeconds;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+
+    /**
+     * 发出的请求数、秒杀脚本成功数，以及失败原因（脚本返回值）-> 次数
+     */
+    private long requests;
+    private long succeeded;
+    private Map<String, Long> failed = new LinkedHashMap<>();
+    private long errors;
+
+    /**
+     * 实际达到的请求速率和落库速率（每秒）
+     */
+    private double achievedRps;
+    private double persistedPerSecond;
+    private long persisted;
+
+    /**
+     * 秒杀脚本 p50/p99 耗时，订单从写入 stream 到落库 p50/p99 耗时（毫秒）
+     */
+    private double scriptP50Millis;
+    private double scriptP99Millis;
+    private double orderP50Millis;
+    private double orderP99Millis;
+
+    /**
+     * 演练期间 Redis 的 CPU 时间（used_cpu_user + used_cpu_sys 增量，包含同一实例上的其他流量）和平均每个请求的 CPU 微秒数
+     */
+    private double redisCpuMillis;
+    private double redisCpuMicrosPerRequest;
+
+    /**
+     * 采样到的最大积压（脚本成功但还没落库的订单数），以及发完请求后消费完积压的耗时
+     */
+    private long maxLag;
+    private long drainMillis;
+}
@@ -0,0 +1,15 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 排队结果：还没轮到时 admissionToken 为空，waitSeconds 是预计等待秒数；
+ * 轮到后带上放行令牌，下单时放在 X-Admission-Token 请求头里
+ */
+@Data
+public class QueuePositionDTO {
+    private Long position;
+    private String ticket;
+    private Long waitSeconds;
+    private String admissionToken;
+}
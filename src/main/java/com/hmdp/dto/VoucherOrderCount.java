@@ -0,0 +1,12 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 按优惠券分组统计的订单件数
+ */
+@Data
+public class VoucherOrderCount {
+    private Long voucherId;
+    private Long quantity;
+}
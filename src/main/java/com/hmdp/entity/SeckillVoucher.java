@@ -37,6 +37,21 @@ public class SeckillVoucher implements Serializable {
      */
     private Integer stock;
 
+    /**
+     * 每人限购件数
+     */
+    private Integer limitPerUser;
+
+    /**
+     * Redis 库存分段数，创建时按库存确定，库存 key 丢失后重建也沿用
+     */
+    private Integer stockSegments;
+
+    /**
+     * Redis 用户已购件数哈希的分桶数，创建时按库存确定，重建也沿用
+     */
+    private Integer orderBuckets;
+
     /**
      * 创建时间
      */
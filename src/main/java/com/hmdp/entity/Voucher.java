@@ -78,6 +78,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 每人限购件数，不填为 1
+     */
+    @TableField(exist = false)
+    private Integer limitPerUser;
+
     /**
      * 生效时间
      */
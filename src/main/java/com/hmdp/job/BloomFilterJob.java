@@ -0,0 +1,33 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.BloomFilters;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 布隆过滤器启动加载和定时刷新
+ * <p>
+ * 定时刷新重新读取元数据和本地副本，兜底丢失的新增、重建通知。
+ * </p>
+ */
+@Component
+public class BloomFilterJob {
+
+    @Resource
+    private BloomFilters bloomFilters;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        bloomFilters.loadAll();
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.bloom-filter.local-refresh-interval:300000}",
+            initialDelayString = "${hmdp.bloom-filter.local-refresh-interval:300000}")
+    public void refresh() {
+        bloomFilters.refreshAll();
+    }
+}
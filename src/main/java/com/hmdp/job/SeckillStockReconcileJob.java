@@ -0,0 +1,220 @@
+package com.hmdp.job;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.VoucherOrderCount;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.SeckillKeys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀库存对账任务
+ * <p>
+ * Redis 里的库存段是秒杀期间的真实剩余库存，订单消费者不扣数据库库存，这里定时把它写回 tb_seckill_voucher，
+ * 同时比较 Redis 记录的总售出件数（seckill:voucher 的 sold 字段）和订单表里的有效订单件数，把偏差作为指标上报。
+ * 每批优惠券只有一条 GROUP BY、两次 pipeline 和一条批量 UPDATE，不按优惠券逐个查询。
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillStockReconcileJob {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 上一轮对账的结果，供 Gauge 读取
+     */
+    private final AtomicLong checkedVouchers = new AtomicLong();
+    private final AtomicLong unwarmedVouchers = new AtomicLong();
+    private final AtomicLong unpersistedOrders = new AtomicLong();
+    private final AtomicLong missingOrders = new AtomicLong();
+    private final AtomicLong stockDrift = new AtomicLong();
+
+    private Counter stockUpdatedCounter;
+
+    private Timer reconcileTimer;
+
+    @PostConstruct
+    private void init() {
+        Gauge.builder("seckill.reconcile.vouchers", checkedVouchers, AtomicLong::get)
+                .description("上一轮对账的秒杀券数")
+                .register(meterRegistry);
+        Gauge.builder("seckill.reconcile.unwarmed", unwarmedVouchers, AtomicLong::get)
+                .description("进行中但 Redis 里没有库存的秒杀券数")
+                .register(meterRegistry);
+        Gauge.builder("seckill.reconcile.orders.unpersisted", unpersistedOrders, AtomicLong::get)
+                .description("Redis 售出件数比订单表多出的件数（排队中或丢失的消息）")
+                .register(meterRegistry);
+        Gauge.builder("seckill.reconcile.orders.missing", missingOrders, AtomicLong::get)
+                .description("订单表比 Redis 售出件数多出的件数（已购件数丢失，可能超过限购）")
+                .register(meterRegistry);
+        Gauge.builder("seckill.reconcile.stock.drift", stockDrift, AtomicLong::get)
+                .description("数据库库存与 Redis 库存的偏差之和")
+                .register(meterRegistry);
+        stockUpdatedCounter = Counter.builder("seckill.reconcile.stock.updated")
+                .description("对账写回数据库库存的秒杀券数")
+                .register(meterRegistry);
+        reconcileTimer = Timer.builder("seckill.reconcile.time")
+                .description("一轮库存对账耗时")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.reconcile-interval:60000}")
+    public void reconcile() {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            // 1.查询进行中以及刚结束的秒杀券
+            LocalDateTime now = LocalDateTime.now();
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .select("voucher_id", "stock")
+                    .le("begin_time", now)
+                    .gt("end_time", now.minus(seckillProperties.getReconcileGrace()))
+                    .list();
+            // 2.分批对账
+            Drift drift = new Drift();
+            int batchSize = Math.max(1, seckillProperties.getReconcileBatchSize());
+            for (int from = 0; from < vouchers.size(); from += batchSize) {
+                reconcileBatch(vouchers.subList(from, Math.min(from + batchSize, vouchers.size())), drift);
+            }
+            // 3.上报本轮结果
+            checkedVouchers.set(vouchers.size());
+            unwarmedVouchers.set(drift.unwarmed);
+            unpersistedOrders.set(drift.unpersisted);
+            missingOrders.set(drift.missing);
+            stockDrift.set(drift.stock);
+            if (drift.unwarmed + drift.missing + drift.stock > 0) {
+                log.info("库存对账完成, vouchers={}, unwarmed={}, unpersisted={}, missing={}, stockDrift={}",
+                        vouchers.size(), drift.unwarmed, drift.unpersisted, drift.missing, drift.stock);
+            }
+        } catch (Exception e) {
+            log.error("库存对账异常", e);
+        } finally {
+            sample.stop(reconcileTimer);
+        }
+    }
+
+    private void reconcileBatch(List<SeckillVoucher> batch, Drift drift) {
+        // 1.一条 GROUP BY 统计已落库的有效订单件数
+        List<Long> voucherIds = batch.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        Map<Long, Long> persisted = new HashMap<>(batch.size() * 2);
+        for (VoucherOrderCount count : voucherOrderMapper.countByVoucherIds(voucherIds)) {
+            persisted.put(count.getVoucherId(), count.getQuantity());
+        }
+
+        // 2.pipeline：每张券 GET 分段数 + HGET 售出件数
+        List<Object> meta = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long voucherId : voucherIds) {
+                conn.get(seckillKeys.segmentsKey(voucherId));
+                conn.hGet(seckillKeys.voucherKey(voucherId), "sold");
+            }
+            return null;
+        });
+        // 没有分段数 key 的券还没预热，不动数据库库存
+        List<SeckillVoucher> warmed = new ArrayList<>(batch.size());
+        List<Integer> segments = new ArrayList<>(batch.size());
+        List<Long> ordered = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Object value = meta.get(2 * i);
+            if (value == null) {
+                drift.unwarmed++;
+                continue;
+            }
+            warmed.add(batch.get(i));
+            segments.add(Integer.valueOf(value.toString()));
+            Object sold = meta.get(2 * i + 1);
+            ordered.add(sold == null ? 0L : Long.parseLong(sold.toString()));
+        }
+        if (warmed.isEmpty()) {
+            return;
+        }
+
+        // 3.pipeline：每张券 MGET 所有库存段
+        List<Object> stocks = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < warmed.size(); i++) {
+                conn.mGet(seckillKeys.stockKeys(warmed.get(i).getVoucherId(), segments.get(i)).toArray(new String[0]));
+            }
+            return null;
+        });
+
+        // 4.比较并收集需要写回的库存
+        Map<Long, Integer> updates = new HashMap<>();
+        for (int i = 0; i < warmed.size(); i++) {
+            SeckillVoucher voucher = warmed.get(i);
+            Long voucherId = voucher.getVoucherId();
+            int redisStock = 0;
+            for (Object share : (List<?>) stocks.get(i)) {
+                redisStock += share == null ? 0 : Math.max(Integer.parseInt(share.toString()), 0);
+            }
+            long orders = persisted.getOrDefault(voucherId, 0L);
+            long inRedis = ordered.get(i);
+            if (orders > inRedis) {
+                log.warn("Redis 售出件数少于订单表, voucherId={}, redis={}, db={}", voucherId, inRedis, orders);
+                drift.missing += orders - inRedis;
+            } else {
+                drift.unpersisted += inRedis - orders;
+            }
+            if (voucher.getStock() == null || voucher.getStock() != redisStock) {
+                drift.stock += Math.abs((voucher.getStock() == null ? 0 : voucher.getStock()) - redisStock);
+                updates.put(voucherId, redisStock);
+            }
+        }
+
+        // 5.一条 UPDATE ... CASE 写回数据库库存
+        if (!updates.isEmpty()) {
+            seckillVoucherMapper.updateStockBatch(updates);
+            stockUpdatedCounter.increment(updates.size());
+        }
+    }
+
+    /**
+     * 一轮对账累计的偏差
+     */
+    private static class Drift {
+        long unwarmed;
+        long unpersisted;
+        long missing;
+        long stock;
+    }
+}
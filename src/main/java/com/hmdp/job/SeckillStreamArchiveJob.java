@@ -0,0 +1,217 @@
+package com.hmdp.job;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillKeys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 订单 stream 归档和裁剪
+ * <p>
+ * 消费者组已经确认的消息（比最早的 pending 消息和最早的未投递消息都旧）、且超过保留时间的，
+ * 按 id 顺序 XRANGE 读出写入本地 gzip 分段文件（每行一条 JSON），文件落盘后记下归档进度，
+ * 再 XTRIM MINID ~ 删掉已归档的部分，保证 Redis 里只留未确认和最近的消息。
+ * 不在秒杀脚本里用 MAXLEN 裁剪：积压严重时 MAXLEN 会把还没落库的订单删掉。
+ * 同一分区同一时间只有一个节点归档（Redisson 锁），归档进度存在 Redis，换节点后接着归档。
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillStreamArchiveJob {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Counter archivedCounter;
+
+    private Counter trimmedCounter;
+
+    @PostConstruct
+    private void init() {
+        archivedCounter = Counter.builder("seckill.stream.archived")
+                .description("归档到本地文件的订单消息数")
+                .register(meterRegistry);
+        trimmedCounter = Counter.builder("seckill.stream.trimmed")
+                .description("从 stream 裁剪掉的消息数")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.archive-interval:60000}")
+    public void archive() {
+        for (int partition = 0; partition < seckillProperties.getStreamPartitions(); partition++) {
+            String streamKey = seckillKeys.streamKey(partition);
+            RLock lock = redissonClient.getLock("lock:" + seckillKeys.archiveKey(partition));
+            if (!lock.tryLock()) {
+                // 其他节点正在归档这个分区
+                continue;
+            }
+            try {
+                archiveStream(partition, streamKey);
+            } catch (Exception e) {
+                log.error("归档订单 stream 异常, stream={}", streamKey, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void archiveStream(int partition, String streamKey) throws IOException {
+        // 1.计算可以归档的上界（不含）：最早的 pending 消息、最早的未投递消息、保留时间，三者取最早
+        String upper = archiveUpperBound(streamKey);
+        if (upper == null) {
+            return;
+        }
+        // 2.从上次归档的位置接着读，一次最多写 archive-segment-size 条到一个分段文件
+        String archiveKey = seckillKeys.archiveKey(partition);
+        String checkpoint = stringRedisTemplate.opsForValue().get(archiveKey);
+        File dir = new File(seckillProperties.getArchiveDir(), String.valueOf(partition));
+        FileUtil.mkdir(dir);
+        File tmp = new File(dir, "segment.tmp");
+        String first = null;
+        String last = null;
+        int count = 0;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(tmp)), StandardCharsets.UTF_8))) {
+            while (count < seckillProperties.getArchiveSegmentSize()) {
+                Range<String> range = Range.of(
+                        last != null ? Range.Bound.exclusive(last)
+                                : checkpoint != null ? Range.Bound.exclusive(checkpoint) : Range.Bound.unbounded(),
+                        Range.Bound.exclusive(upper));
+                int pageSize = Math.min(seckillProperties.getArchivePageSize(), seckillProperties.getArchiveSegmentSize() - count);
+                List<MapRecord<String, Object, Object>> page = stringRedisTemplate.opsForStream()
+                        .range(streamKey, range, Limit.limit().count(pageSize));
+                if (page == null || page.isEmpty()) {
+                    break;
+                }
+                for (MapRecord<String, Object, Object> record : page) {
+                    Map<Object, Object> line = new LinkedHashMap<>();
+                    line.put("recordId", record.getId().getValue());
+                    line.putAll(record.getValue());
+                    writer.write(JSONUtil.toJsonStr(line));
+                    writer.newLine();
+                }
+                if (first == null) {
+                    first = page.get(0).getId().getValue();
+                }
+                last = page.get(page.size() - 1).getId().getValue();
+                count += page.size();
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+        }
+        if (count == 0) {
+            FileUtil.del(tmp);
+            trim(streamKey, checkpoint);
+            return;
+        }
+        // 3.文件写完后改名，再记录归档进度，最后裁剪；中途失败下次会重新归档这一段，不会丢
+        FileUtil.rename(tmp, first + "_" + last + ".jsonl.gz", true);
+        stringRedisTemplate.opsForValue().set(archiveKey, last);
+        archivedCounter.increment(count);
+        trim(streamKey, last);
+        log.info("订单 stream 已归档, stream={}, count={}, range={}~{}", streamKey, count, first, last);
+    }
+
+    /**
+     * 可以归档的 id 上界（不含），没有可以归档的消息时返回 null
+     */
+    private String archiveUpperBound(String streamKey) {
+        StreamInfo.XInfoGroup group = stringRedisTemplate.opsForStream().groups(streamKey).stream()
+                .filter(g -> SECKILL_ORDER_GROUP.equals(g.groupName()))
+                .findFirst()
+                .orElse(null);
+        if (group == null) {
+            return null;
+        }
+        // 已投递的消息：id <= lastDeliveredId
+        String upper = successor(group.lastDeliveredId());
+        // 已投递未确认的消息：id >= 最早的 pending id
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream().pending(streamKey, SECKILL_ORDER_GROUP);
+        if (pending != null && pending.getTotalPendingMessages() > 0) {
+            upper = min(upper, pending.minMessageId());
+        }
+        // 保留最近一段时间的消息，方便排查
+        long retainFrom = System.currentTimeMillis() - seckillProperties.getArchiveRetention().toMillis();
+        upper = min(upper, retainFrom + "-0");
+        return "0-0".equals(upper) ? null : upper;
+    }
+
+    /**
+     * XTRIM MINID ~ id：删除 id 之前的消息，按宏节点整块删除，代价很小
+     */
+    private void trim(String streamKey, String archivedId) {
+        if (archivedId == null) {
+            return;
+        }
+        Long trimmed = redisScriptRegistry.execute(RedisScriptRegistry.STREAM_TRIM,
+                Collections.singletonList(streamKey), successor(archivedId));
+        if (trimmed != null) {
+            trimmedCounter.increment(trimmed);
+        }
+    }
+
+    /**
+     * 紧跟在 id 后面的 id
+     */
+    private static String successor(String id) {
+        int dash = id.indexOf('-');
+        return id.substring(0, dash) + "-" + (Long.parseLong(id.substring(dash + 1)) + 1);
+    }
+
+    private static String min(String a, String b) {
+        return compare(a, b) <= 0 ? a : b;
+    }
+
+    private static int compare(String a, String b) {
+        int dashA = a.indexOf('-');
+        int dashB = b.indexOf('-');
+        int c = Long.compare(Long.parseLong(a.substring(0, dashA)), Long.parseLong(b.substring(0, dashB)));
+        return c != 0 ? c : Long.compare(Long.parseLong(a.substring(dashA + 1)), Long.parseLong(b.substring(dashB + 1)));
+    }
+}
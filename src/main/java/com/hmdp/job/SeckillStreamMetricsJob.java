@@ -0,0 +1,162 @@
+package com.hmdp.job;
+
+import com.hmdp.utils.SeckillKeys;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 订单 stream 指标采样
+ * <p>
+ * 定时对每个分区执行一次 XINFO STREAM、XINFO GROUPS、XPENDING 和从消费者组读到的位置开始的 XRANGE，结果缓存在本地供 Gauge 读取，
+ * 抓取指标时不访问 Redis。
+ * 积压条数优先取 Redis 7 的 XINFO GROUPS lag 字段；旧版本没有这个字段，按页 XRANGE 数出还没投递的消息数，
+ * 最多数到 LAG_SCAN_LIMIT 条，超过时按上限报告；
+ * 积压时间是最早一条还没投递的消息到现在的毫秒数，由它的 stream id 时间戳算出。
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillStreamMetricsJob {
+
+    /**
+     * 没有 lag 字段时自己数积压，最多数到这么多条
+     */
+    private static final int LAG_SCAN_LIMIT = 10000;
+
+    /**
+     * 自己数积压时每次 XRANGE 的条数
+     */
+    private static final int LAG_SCAN_PAGE = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * stream key -> 最近一次采样
+     */
+    private final Map<String, StreamSample> samples = new ConcurrentHashMap<>();
+
+    private MultiGauge consumerPending;
+
+    @PostConstruct
+    private void init() {
+        for (String streamKey : seckillKeys.streamKeys()) {
+            StreamSample sample = new StreamSample();
+            samples.put(streamKey, sample);
+            Tags tags = Tags.of("stream", streamKey);
+            Gauge.builder("seckill.stream.length", sample, s -> s.length)
+                    .tags(tags).description("stream 长度（XLEN）")
+                    .register(meterRegistry);
+            Gauge.builder("seckill.stream.lag", sample, s -> s.lag)
+                    .tags(tags).description("消费者组还没读到的消息数，Redis 7 以下自己数，最多数到 " + LAG_SCAN_LIMIT)
+                    .register(meterRegistry);
+            Gauge.builder("seckill.stream.lag.time", sample, s -> s.lagMillis)
+                    .tags(tags).description("最早一条未投递消息的等待时间（毫秒）")
+                    .register(meterRegistry);
+            Gauge.builder("seckill.stream.pending", sample, s -> s.pending)
+                    .tags(tags).description("已投递未确认的消息数")
+                    .register(meterRegistry);
+        }
+        consumerPending = MultiGauge.builder("seckill.stream.consumer.pending")
+                .description("每个消费者已投递未确认的消息数")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.metrics-interval:10000}")
+    public void sample() {
+        List<MultiGauge.Row<?>> rows = new ArrayList<>();
+        samples.forEach((streamKey, sample) -> {
+            try {
+                sampleStream(streamKey, sample, rows);
+            } catch (Exception e) {
+                log.warn("采样 stream 指标失败, stream={}", streamKey, e);
+            }
+        });
+        consumerPending.register(rows, true);
+    }
+
+    private void sampleStream(String streamKey, StreamSample sample, List<MultiGauge.Row<?>> rows) {
+        // 1.XINFO STREAM：长度
+        StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(streamKey);
+        sample.length = info.streamLength();
+
+        // 2.XINFO GROUPS：消费者组读到的位置和 lag
+        StreamInfo.XInfoGroup group = stringRedisTemplate.opsForStream().groups(streamKey).stream()
+                .filter(g -> SECKILL_ORDER_GROUP.equals(g.groupName()))
+                .findFirst()
+                .orElse(null);
+        if (group == null) {
+            return;
+        }
+        Object lag = group.getRaw().get("lag");
+
+        // 3.XRANGE stream (lastDeliveredId + COUNT：第一条是最早一条还没投递的消息；没有 lag 字段时接着往后数
+        int firstPage = lag instanceof Number ? 1 : LAG_SCAN_PAGE;
+        List<MapRecord<String, Object, Object>> next = stringRedisTemplate.opsForStream().range(streamKey,
+                Range.rightUnbounded(Range.Bound.exclusive(group.lastDeliveredId())), Limit.limit().count(firstPage));
+        sample.lagMillis = next == null || next.isEmpty()
+                ? 0 : Math.max(System.currentTimeMillis() - next.get(0).getId().getTimestamp(), 0);
+        sample.lag = lag instanceof Number ? ((Number) lag).doubleValue() : countUndelivered(streamKey, next);
+
+        // 4.XPENDING：总数和每个消费者的未确认数
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream().pending(streamKey, SECKILL_ORDER_GROUP);
+        sample.pending = pending == null ? 0 : pending.getTotalPendingMessages();
+        if (pending != null) {
+            pending.getPendingMessagesPerConsumer().forEach((consumer, count) ->
+                    rows.add(MultiGauge.Row.of(Tags.of("stream", streamKey, "consumer", consumer), count)));
+        }
+    }
+
+    /**
+     * 从第一页开始按页数出还没投递的消息，最多数到 LAG_SCAN_LIMIT
+     */
+    private long countUndelivered(String streamKey, List<MapRecord<String, Object, Object>> page) {
+        long lag = 0;
+        while (page != null && !page.isEmpty()) {
+            lag += page.size();
+            if (page.size() < LAG_SCAN_PAGE || lag >= LAG_SCAN_LIMIT) {
+                break;
+            }
+            String lastId = page.get(page.size() - 1).getId().getValue();
+            page = stringRedisTemplate.opsForStream().range(streamKey,
+                    Range.rightUnbounded(Range.Bound.exclusive(lastId)), Limit.limit().count(LAG_SCAN_PAGE));
+        }
+        return Math.min(lag, LAG_SCAN_LIMIT);
+    }
+
+    /**
+     * 一个分区最近一次的采样结果
+     */
+    private static class StreamSample {
+        volatile double length;
+        volatile double lag = Double.NaN;
+        volatile double lagMillis;
+        volatile double pending;
+    }
+}
@@ -0,0 +1,183 @@
+package com.hmdp.job;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 秒杀券预热
+ * <p>
+ * 启动时以及每个秒杀开始前，把进行中和即将开始的秒杀券写入 Redis：
+ * 开始/结束时间和每人限购件数写入 seckill:voucher:{p}:id 哈希，供秒杀脚本在同一次调用里校验；
+ * 库存 key 不存在时（例如 Redis 重启或被清空）按数据库库存重建，并从订单表恢复用户已购件数和总售出件数；
+ * 重建沿用创建时记在 tb_seckill_voucher 的分段数和分桶数，其他节点缓存的 key 布局仍然有效。
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillWarmUpJob {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    /**
+     * 恢复用户已购件数时每次 HSET 的用户数
+     */
+    private static final int HSET_BATCH = 1000;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        warmUpActive();
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.warm-up-interval:60000}")
+    public void warmUpActive() {
+        // 1.查询进行中、以及 warm-up-lead 内即将开始的秒杀券
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .le("begin_time", now.plus(seckillProperties.getWarmUpLead()))
+                .gt("end_time", now)
+                .list();
+        // 2.逐个预热
+        for (SeckillVoucher voucher : vouchers) {
+            try {
+                warmUp(voucher, false);
+            } catch (Exception e) {
+                log.error("秒杀券预热失败, voucherId={}", voucher.getVoucherId(), e);
+            }
+        }
+    }
+
+    /**
+     * 预热一张秒杀券
+     * @param voucher 秒杀券
+     * @param overwriteStock true：按数据库库存覆盖 Redis 库存（新建秒杀券）；false：只在库存 key 不存在时重建
+     */
+    public void warmUp(SeckillVoucher voucher, boolean overwriteStock) {
+        Long voucherId = voucher.getVoucherId();
+        // 1.写入时间窗口和限购件数，秒杀结束一天后自动过期
+        String voucherKey = seckillKeys.voucherKey(voucherId);
+        Map<String, String> window = new HashMap<>(4);
+        window.put("begin", String.valueOf(toEpochMilli(voucher.getBeginTime())));
+        window.put("end", String.valueOf(toEpochMilli(voucher.getEndTime())));
+        window.put("limit", String.valueOf(voucher.getLimitPerUser() == null ? 1 : voucher.getLimitPerUser()));
+        if (overwriteStock) {
+            window.put("sold", "0");
+        }
+        stringRedisTemplate.opsForHash().putAll(voucherKey, window);
+        stringRedisTemplate.expire(voucherKey, Duration.ofMillis(
+                Math.max(toEpochMilli(voucher.getEndTime()) - System.currentTimeMillis(), 0)).plusDays(1));
+
+        // 2.写入库存，按创建时确定的段数拆分，连同分段数、分桶数一次 MSET / MSETNX（所有 key 带同一个 hash tag）
+        int stock = Math.max(voucher.getStock(), 0);
+        resolveLayout(voucher);
+        int segments = voucher.getStockSegments();
+        int buckets = voucher.getOrderBuckets();
+        int[] shares = SeckillKeys.split(stock, segments);
+        Map<String, String> stockEntries = new HashMap<>(segments + 2);
+        for (int i = 0; i < segments; i++) {
+            stockEntries.put(seckillKeys.stockKey(voucherId, i, segments), String.valueOf(shares[i]));
+        }
+        stockEntries.put(seckillKeys.segmentsKey(voucherId), String.valueOf(segments));
+        stockEntries.put(seckillKeys.bucketsKey(voucherId), String.valueOf(buckets));
+        if (overwriteStock) {
+            stringRedisTemplate.opsForValue().multiSet(stockEntries);
+        } else if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().multiSetIfAbsent(stockEntries))) {
+            // 库存已存在，不覆盖
+            return;
+        }
+        seckillKeys.cacheSegments(voucherId, segments);
+        seckillKeys.cacheBuckets(voucherId, buckets);
+        if (!overwriteStock) {
+            // 3.库存是重建的，说明用户已购件数也丢了，从订单表恢复，再让其他节点重新读取分段数、分桶数
+            restoreOrderedUsers(voucherId, buckets);
+            seckillKeys.evictLayout(voucherId);
+            log.warn("秒杀券库存已按数据库重建, voucherId={}, stock={}", voucherId, stock);
+        }
+    }
+
+    /**
+     * 补全分段数和分桶数：老的秒杀券没有记录时，Redis 里还有就沿用，否则按当前库存计算，写回数据库供以后重建使用
+     */
+    private void resolveLayout(SeckillVoucher voucher) {
+        if (voucher.getStockSegments() != null && voucher.getOrderBuckets() != null) {
+            return;
+        }
+        Long voucherId = voucher.getVoucherId();
+        int stock = Math.max(voucher.getStock(), 0);
+        String segments = stringRedisTemplate.opsForValue().get(seckillKeys.segmentsKey(voucherId));
+        String buckets = stringRedisTemplate.opsForValue().get(seckillKeys.bucketsKey(voucherId));
+        voucher.setStockSegments(segments == null ? seckillKeys.segmentsFor(stock) : Integer.parseInt(segments));
+        voucher.setOrderBuckets(buckets == null ? seckillKeys.bucketsFor(stock) : Integer.parseInt(buckets));
+        boolean saved = seckillVoucherService.update()
+                .set("stock_segments", voucher.getStockSegments())
+                .set("order_buckets", voucher.getOrderBuckets())
+                .eq("voucher_id", voucherId)
+                .isNull("stock_segments")
+                .update();
+        if (!saved) {
+            // 别的节点先写入了，以数据库为准
+            SeckillVoucher latest = seckillVoucherService.getById(voucherId);
+            if (latest != null && latest.getStockSegments() != null && latest.getOrderBuckets() != null) {
+                voucher.setStockSegments(latest.getStockSegments());
+                voucher.setOrderBuckets(latest.getOrderBuckets());
+            }
+        }
+    }
+
+    private void restoreOrderedUsers(Long voucherId, int buckets) {
+        List<VoucherOrder> bought = voucherOrderService.list(new QueryWrapper<VoucherOrder>()
+                .select("user_id", "SUM(quantity) AS quantity")
+                .eq("voucher_id", voucherId)
+                // 已取消的订单不算
+                .ne("status", 4)
+                .groupBy("user_id"));
+        long sold = 0;
+        for (int from = 0; from < bought.size(); from += HSET_BATCH) {
+            // 按桶分组，每桶一次 HSET
+            Map<String, Map<String, String>> byBucket = new HashMap<>();
+            for (VoucherOrder order : bought.subList(from, Math.min(from + HSET_BATCH, bought.size()))) {
+                int bucket = (int) Math.floorMod(order.getUserId(), (long) buckets);
+                byBucket.computeIfAbsent(seckillKeys.orderBucketKey(voucherId, bucket, buckets), k -> new HashMap<>())
+                        .put(order.getUserId().toString(), order.getQuantity().toString());
+                sold += order.getQuantity();
+            }
+            byBucket.forEach((key, users) -> stringRedisTemplate.opsForHash().putAll(key, users));
+        }
+        stringRedisTemplate.opsForHash().put(seckillKeys.voucherKey(voucherId), "sold", String.valueOf(sold));
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp.job;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.UnpaidOrderQueue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 超时未支付订单取消任务
+ * <p>
+ * 每个分区从 seckill:unpaid:{p} 按截止时间取出一批到期订单：一条批量 UPDATE 改为已取消，
+ * 再按优惠券分组，每张券一次取消脚本退回库存、扣回用户已购件数、订单状态改为已取消，最后移出队列。
+ * 中途失败时订单还在队列里，下一轮重做；数据库和脚本都按订单状态去重，不会多退库存。
+ * 同一分区同一时间只有一个节点处理（Redisson 锁）。
+ * </p>
+ */
+@Slf4j
+@Component
+public class UnpaidOrderCancelJob {
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private UnpaidOrderQueue unpaidOrderQueue;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private Counter cancelledCounter;
+
+    private Counter stockReturnedCounter;
+
+    @PostConstruct
+    private void init() {
+        cancelledCounter = Counter.builder("seckill.order.cancelled")
+                .description("超时未支付取消的订单数")
+                .register(meterRegistry);
+        stockReturnedCounter = Counter.builder("seckill.stock.returned")
+                .description("取消订单退回 Redis 的库存件数")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.cancel-interval:5000}")
+    public void cancel() {
+        for (int partition = 0; partition < seckillProperties.getStreamPartitions(); partition++) {
+            RLock lock = redissonClient.getLock("lock:" + seckillKeys.unpaidKey(partition));
+            if (!lock.tryLock()) {
+                // 其他节点正在处理这个分区
+                continue;
+            }
+            try {
+                int batchSize = seckillProperties.getCancelBatchSize();
+                List<Long> orderIds;
+                do {
+                    orderIds = unpaidOrderQueue.due(partition, batchSize);
+                    cancelBatch(partition, orderIds);
+                } while (orderIds.size() == batchSize);
+            } catch (Exception e) {
+                log.error("取消未支付订单异常, partition={}", partition, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void cancelBatch(int partition, List<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        // 1.一条 UPDATE 取消未支付的订单，已支付的直接移出队列
+        List<VoucherOrder> cancelled = voucherOrderService.cancelUnpaidOrders(orderIds);
+        // 2.按优惠券分组，每张券一次脚本退库存
+        Map<Long, List<VoucherOrder>> byVoucher = new HashMap<>();
+        for (VoucherOrder order : cancelled) {
+            byVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+        }
+        long returned = 0;
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            returned += voucherOrderService.returnSeckillStock(entry.getKey(), entry.getValue(), SeckillOrderStatus.CANCELLED);
+        }
+        // 3.全部处理完再移出队列
+        unpaidOrderQueue.remove(partition, orderIds);
+        cancelledCounter.increment(cancelled.size());
+        stockReturnedCounter.increment(returned);
+        log.debug("已取消未支付订单, partition={}, due={}, cancelled={}, returned={}",
+                partition, orderIds.size(), cancelled.size(), returned);
+    }
+}
@@ -0,0 +1,257 @@
+package com.hmdp.job;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.UnpaidOrderQueue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 订单 pending-list 恢复任务
+ * <p>
+ * 主消费循环只处理新消息，处理失败的消息留在 pending-list 里，由这里定时分页扫描、认领重试：
+ * 空闲时间超过 minIdle * 2^(投递次数-1) 的消息 XCLAIM 过来重新落库，投递次数达到上限的先查库：
+ * 订单已落库的补上状态后确认，没落库的退回它占用的 Redis 库存和用户已购件数，订单状态改为失败，确认后转入死信 stream。
+ * </p>
+ */
+@Slf4j
+@Component
+public class VoucherOrderRecoveryJob {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private UnpaidOrderQueue unpaidOrderQueue;
+
+    /**
+     * 恢复任务使用的消费者名
+     */
+    private String recoveryConsumer;
+
+    private Counter recoveredCounter;
+
+    private Counter deadLetterCounter;
+
+    @PostConstruct
+    private void init() {
+        String prefix = StrUtil.blankToDefault(seckillProperties.getConsumerPrefix(), NetUtil.getLocalHostName());
+        recoveryConsumer = prefix + "-recovery";
+        recoveredCounter = Counter.builder("seckill.order.recovered")
+                .description("从 pending-list 恢复落库的订单数")
+                .register(meterRegistry);
+        deadLetterCounter = Counter.builder("seckill.order.dead-lettered")
+                .description("超过重试上限转入死信的订单数")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.recovery-interval:5000}")
+    public void recover() {
+        for (String streamKey : seckillKeys.streamKeys()) {
+            try {
+                recoverStream(streamKey);
+            } catch (Exception e) {
+                log.error("恢复 pending 订单异常, stream={}", streamKey, e);
+            }
+        }
+    }
+
+    /**
+     * 从最早的 pending 消息开始分页扫描整个 pending-list，前面的消息还在退避中时也能轮到后面的
+     */
+    private void recoverStream(String streamKey) {
+        int batchSize = seckillProperties.getRecoveryBatchSize();
+        Range<String> range = Range.unbounded();
+        String lastId = null;
+        while (true) {
+            // 1.XPENDING stream g1 上一页最后的id + count，拿到每条消息的空闲时间和投递次数
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, SECKILL_ORDER_GROUP, range, batchSize + (lastId == null ? 0 : 1));
+            if (pending == null || pending.isEmpty()) {
+                return;
+            }
+            List<PendingMessage> page = new ArrayList<>(pending.size());
+            for (PendingMessage message : pending) {
+                // 下界包含上一页最后一条，跳过
+                if (!message.getIdAsString().equals(lastId)) {
+                    page.add(message);
+                }
+            }
+            if (page.isEmpty()) {
+                return;
+            }
+            recoverPage(streamKey, page);
+            if (page.size() < batchSize) {
+                return;
+            }
+            lastId = page.get(page.size() - 1).getIdAsString();
+            range = Range.rightUnbounded(Range.Bound.inclusive(lastId));
+        }
+    }
+
+    private void recoverPage(String streamKey, List<PendingMessage> page) {
+        // 2.按退避时间挑出可以重试的消息，投递次数达到上限的进死信
+        List<RecordId> retryIds = new ArrayList<>();
+        List<RecordId> deadIds = new ArrayList<>();
+        Map<RecordId, Long> deliveries = new HashMap<>();
+        for (PendingMessage message : page) {
+            long count = message.getTotalDeliveryCount();
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(backoffOf(count)) < 0) {
+                continue;
+            }
+            deliveries.put(message.getId(), count);
+            (count >= seckillProperties.getMaxDeliveries() ? deadIds : retryIds).add(message.getId());
+        }
+        // 3.XCLAIM 认领；别的节点先认领了的消息空闲时间被重置，这里就拿不到
+        if (!deadIds.isEmpty()) {
+            deadLetter(streamKey, claim(streamKey, deadIds), deliveries);
+        }
+        if (!retryIds.isEmpty()) {
+            retry(streamKey, claim(streamKey, retryIds));
+        }
+    }
+
+    /**
+     * 第 n 次投递后需要等待的空闲时间：minIdle * 2^(n-1)，不超过 maxBackoff
+     */
+    private Duration backoffOf(long deliveries) {
+        Duration minIdle = seckillProperties.getRecoveryMinIdle();
+        Duration maxBackoff = seckillProperties.getRecoveryMaxBackoff();
+        int shift = (int) Math.min(Math.max(deliveries - 1, 0), 20);
+        Duration backoff = minIdle.multipliedBy(1L << shift);
+        return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+    }
+
+    private List<StringRecord> claim(String streamKey, List<RecordId> ids) {
+        RedisStreamCommands.XClaimOptions options = RedisStreamCommands.XClaimOptions
+                .minIdle(seckillProperties.getRecoveryMinIdle())
+                .ids(ids.toArray(new RecordId[0]));
+        List<StringRecord> records = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                ((StringRedisConnection) connection).xClaim(streamKey, SECKILL_ORDER_GROUP, recoveryConsumer, options));
+        return records == null ? Collections.emptyList() : records;
+    }
+
+    private void retry(String streamKey, List<StringRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        for (StringRecord record : records) {
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        try {
+            // 1.先整批重试
+            voucherOrderService.createVoucherOrders(voucherOrders);
+            seckillOrderStatus.update(voucherOrders, SeckillOrderStatus.PERSISTED);
+            unpaidOrderQueue.schedule(voucherOrders);
+            acknowledge(streamKey, records);
+            recoveredCounter.increment(records.size());
+            return;
+        } catch (Exception e) {
+            log.warn("pending 订单整批重试失败，逐条重试, stream={}, size={}", streamKey, records.size(), e);
+        }
+        // 2.整批失败时逐条重试，把有问题的消息隔离出来，其余的正常确认
+        for (int i = 0; i < records.size(); i++) {
+            StringRecord record = records.get(i);
+            try {
+                voucherOrderService.createVoucherOrders(Collections.singletonList(voucherOrders.get(i)));
+                seckillOrderStatus.update(Collections.singletonList(voucherOrders.get(i)), SeckillOrderStatus.PERSISTED);
+                unpaidOrderQueue.schedule(Collections.singletonList(voucherOrders.get(i)));
+                acknowledge(streamKey, Collections.singletonList(record));
+                recoveredCounter.increment();
+            } catch (Exception e) {
+                log.error("pending 订单重试失败, stream={}, id={}", streamKey, record.getId(), e);
+            }
+        }
+    }
+
+    private void deadLetter(String streamKey, List<StringRecord> records, Map<RecordId, Long> deliveries) {
+        if (records.isEmpty()) {
+            return;
+        }
+        // 1.订单可能已经落库，只是之后写状态、登记超时取消或确认一直失败，这种不能退库存
+        List<Long> orderIds = new ArrayList<>(records.size());
+        for (StringRecord record : records) {
+            orderIds.add(Long.valueOf(record.getValue().get("id")));
+        }
+        Set<Long> persistedIds = voucherOrderService.listByIds(orderIds).stream()
+                .map(VoucherOrder::getId)
+                .collect(Collectors.toSet());
+        for (StringRecord record : records) {
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            List<VoucherOrder> orders = Collections.singletonList(voucherOrder);
+            if (persistedIds.contains(voucherOrder.getId())) {
+                // 2.已落库：补上状态和超时取消后确认，不进死信
+                seckillOrderStatus.update(orders, SeckillOrderStatus.PERSISTED);
+                unpaidOrderQueue.schedule(orders);
+                acknowledge(streamKey, Collections.singletonList(record));
+                recoveredCounter.increment();
+                continue;
+            }
+            // 3.退回库存和用户已购件数，状态改为失败；脚本按订单状态去重，确认前中断后重做不会多退
+            voucherOrderService.returnSeckillStock(voucherOrder.getVoucherId(), orders, SeckillOrderStatus.FAILED);
+            // 4.广播状态变化，唤醒长轮询等待的请求，然后确认
+            seckillOrderStatus.update(orders, SeckillOrderStatus.FAILED);
+            acknowledge(streamKey, Collections.singletonList(record));
+            // 5.确认之后再写死信，中断后重做不会重复写；保留原消息内容，附带来源和投递次数，方便人工排查后重放
+            Map<String, String> value = new HashMap<>(record.getValue());
+            value.put("stream", streamKey);
+            value.put("recordId", record.getId().getValue());
+            value.put("deliveries", String.valueOf(deliveries.getOrDefault(record.getId(), 0L)));
+            stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(SECKILL_ORDER_DLQ_KEY).ofMap(value));
+            deadLetterCounter.increment();
+            log.error("订单消息超过重试上限，转入死信, stream={}, id={}, value={}", streamKey, record.getId(), record.getValue());
+        }
+    }
+
+    private void acknowledge(String streamKey, List<StringRecord> records) {
+        RecordId[] ids = new RecordId[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            ids[i] = records.get(i).getId();
+        }
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, ids);
+    }
+}
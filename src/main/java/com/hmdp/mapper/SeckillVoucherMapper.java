@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +16,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    /**
+     * 一条 UPDATE ... CASE 批量写回库存
+     * @param stocks 优惠券id -> 库存
+     * @return 更新的行数
+     */
+    int updateStockBatch(@Param("stocks") Map<Long, Integer> stocks);
 }
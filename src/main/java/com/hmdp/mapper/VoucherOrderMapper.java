@@ -1,7 +1,12 @@
 package com.hmdp.mapper;
 
+import com.hmdp.dto.VoucherOrderCount;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +18,45 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 一条 INSERT 批量写入订单
+     * @param list 订单列表
+     * @return 实际插入的行数（重复的订单会被忽略）
+     */
+    int insertBatch(@Param("list") List<VoucherOrder> list);
+
+    /**
+     * 秒杀演练：同样的批量 INSERT 写入影子表 tb_voucher_order_dryrun
+     * @param list 订单列表
+     * @return 实际插入的行数
+     */
+    int insertBatchDryRun(@Param("list") List<VoucherOrder> list);
+
+    /**
+     * 秒杀演练结束后清空这张券在影子表里的订单
+     * @param voucherId 优惠券id
+     * @return 删除的行数
+     */
+    int deleteDryRun(@Param("voucherId") long voucherId);
+
+    /**
+     * 按主键查询并锁住订单（SELECT ... FOR UPDATE），需要在事务中调用
+     * @param ids 订单id
+     * @return 存在的订单，只有 id、userId、voucherId、quantity、status
+     */
+    List<VoucherOrder> selectForCancel(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 一条 UPDATE 把未支付的订单改为已取消，已支付或已取消的不变
+     * @param ids 订单id
+     * @return 取消的行数
+     */
+    int cancelBatch(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 一条 GROUP BY 统计多张优惠券的有效订单件数（不含已取消），没有订单的优惠券不返回
+     * @param voucherIds 优惠券id
+     * @return 每张优惠券的已售件数
+     */
+    List<VoucherOrderCount> countByVoucherIds(@Param("voucherIds") Collection<Long> voucherIds);
 }
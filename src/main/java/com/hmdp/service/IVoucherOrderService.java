@@ -4,6 +4,10 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -15,7 +19,33 @@ import org.springframework.transaction.annotation.Transactional;
  */
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
-    Result setkillVoucher(Long voucherId);
+    /**
+     * 秒杀下单
+     * @param voucherId 秒杀卷id
+     * @param quantity 购买件数
+     */
+    Result setkillVoucher(Long voucherId, Integer quantity);
+
+    /**
+     * 秒杀排队取号
+     * @param voucherId 秒杀卷id
+     */
+    Result enqueue(Long voucherId);
+
+    /**
+     * 用排队凭证查询排队进度
+     * @param voucherId 秒杀卷id
+     * @param ticket 取号时返回的排队凭证
+     */
+    Result queuePosition(Long voucherId, String ticket);
+
+    /**
+     * 查询秒杀订单状态
+     * @param voucherId 秒杀卷id
+     * @param orderId 下单返回的订单id
+     * @param wait 仍在排队时是否长轮询等待结果
+     */
+    DeferredResult<Result> queryOrderStatus(Long voucherId, Long orderId, boolean wait);
 
     //Result createVoucherOrder(Long voucherId);
 
@@ -43,4 +73,27 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     @Transactional
     //保证：扣库存 + 创建订单 原子性
     Result createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量保存订单（一条多行 INSERT）
+     * @param voucherOrders 订单列表
+     * @return 实际插入的行数
+     */
+    int createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 取消超时未支付的订单（一条批量 UPDATE），只改数据库，不退 Redis 库存
+     * @param orderIds 订单id
+     * @return 处于已取消状态的订单，包括之前已经取消的；已支付和不存在的订单不返回
+     */
+    List<VoucherOrder> cancelUnpaidOrders(Collection<Long> orderIds);
+
+    /**
+     * 退回一张券一批订单占用的 Redis 库存和用户已购件数，订单状态改为 status；按订单状态去重，重复调用不会多退
+     * @param voucherId 秒杀卷id
+     * @param orders 这张券的订单
+     * @param status 退回后的订单状态，已取消或失败
+     * @return 实际退回的件数
+     */
+    long returnSeckillStock(Long voucherId, List<VoucherOrder> orders, int status);
 }
@@ -2,7 +2,6 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
@@ -15,6 +14,8 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilters;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
@@ -23,10 +24,15 @@ import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -49,6 +55,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private BloomFilters bloomFilters;
+
+    @Resource
+    private CacheClient cacheClient;
+
     /**
      * 首页展示热门博客
      * @param current
@@ -62,11 +74,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLike(blog);
-        });
+        // 批量查询用户
+        queryBlogUsers(records);
+        records.forEach(this::isBlogLike);
         return Result.ok(records);
     }
 
@@ -77,14 +87,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
-        //1. 查询博客
+        //1. 查询博客，布隆过滤器判定一定不存在的直接返回
+        if(!bloomFilters.mightContain(BloomFilters.BLOG, id)){
+            return Result.fail("博客不存在！");
+        }
         Blog blog = getById(id);
         if(blog == null){
             return Result.fail("博客不存在！");
         }
 
         //2. 查询blog有关用户
-        queryBlogUser(blog);
+        queryBlogUsers(Collections.singletonList(blog));
         //3. 查询blog是否被点赞
         isBlogLike(blog);
         return Result.ok(blog);
@@ -125,12 +138,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
             //保存用户到Redis集合,用时间戳作为分数
             if(isSuccess){
+                cacheClient.delete(RedisConstants.CACHE_BLOG_KEY + id);
                 stringRedisTemplate.opsForZSet().add(key,userId.toString(),System.currentTimeMillis());
             }
         }else {
             //4. 如果已经点赞，则取消点赞,数据库点赞数-1
             boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
             if(isSuccess){
+                cacheClient.delete(RedisConstants.CACHE_BLOG_KEY + id);
                 //把用户从Redis中移除
                 stringRedisTemplate.opsForZSet().remove(key,userId.toString());
             }
@@ -154,14 +169,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
         //2. 解析出其中的用户id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
 
-        //3. 根据用户id查询用户 WHERE id IN ( 5 , 1 ) ORDER BY FIELD(id, 5, 1)
-        List<UserDTO> userDTO = userService.query()
-                .in("id", ids)
-                .last("order by field(id" + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+        //3. 根据用户id批量查询用户，顺序与点赞顺序一致
+        List<UserDTO> userDTO = queryUsers(ids).stream()
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
 
         //返回
@@ -184,6 +195,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!isSuccess){
             return Result.fail("新增笔记失败！");
         }
+        bloomFilters.add(BloomFilters.BLOG, blog.getId());
         //3. 查询笔记作者的所有粉丝
         List<Follow> follows = followService.query().eq("follow_user_id", userId).list();
         //4. 发送笔记给所有粉丝
@@ -232,16 +244,23 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 os = 1;
             }
         }
-        //5. 根据id查询blog
-        String idStr = StrUtil.join(",",ids);
-        List<Blog> blogs = query().in("id", ids).last("order by field (id," + idStr + ")").list();
-
-        for (Blog blog : blogs) {
-            //2. 查询blog有关用户
-            queryBlogUser(blog);
-            //3. 查询blog是否被点赞
-            isBlogLike(blog);
+        //5. 根据id批量查询blog（一次 MGET，未命中的一次查库）
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (Blog cached : cacheClient.queryBatch(
+                RedisConstants.CACHE_BLOG_KEY,
+                ids,
+                Blog.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Blog::getId, Function.identity())),
+                Duration.ofMinutes(RedisConstants.CACHE_BLOG_TTL))) {
+            if (cached != null) {
+                //缓存里的对象是共享的，复制一份再填充用户和点赞信息
+                blogs.add(BeanUtil.copyProperties(cached, Blog.class));
+            }
         }
+        //2. 批量查询blog有关用户
+        queryBlogUsers(blogs);
+        //3. 查询blog是否被点赞
+        blogs.forEach(this::isBlogLike);
 
         //6. 封装返回
         ScrollResult scrollResult = new ScrollResult();
@@ -256,13 +275,36 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
     /**
-     * 查询用户
-     * @param blog
+     * 批量查询博客作者，填充头像和昵称
+     * @param blogs
+     */
+    private void queryBlogUsers(List<Blog> blogs){
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        List<UserDTO> users = queryUsers(userIds);
+        Map<Long, UserDTO> userMap = new HashMap<>(users.size() * 2);
+        for (int i = 0; i < userIds.size(); i++) {
+            userMap.put(userIds.get(i), users.get(i));
+        }
+        for (Blog blog : blogs) {
+            UserDTO user = userMap.get(blog.getUserId());
+            if (user != null) {
+                blog.setIcon(user.getIcon());
+                blog.setName(user.getNickName());
+            }
+        }
+    }
+
+    /**
+     * 按id批量查询用户（走缓存），顺序与ids一致，不存在的位置为null
+     * @param ids
      */
-    private void queryBlogUser(Blog blog){
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setIcon(user.getIcon());
-        blog.setName(user.getNickName());
+    private List<UserDTO> queryUsers(List<Long> ids){
+        return cacheClient.queryBatch(
+                RedisConstants.CACHE_USER_KEY,
+                ids,
+                UserDTO.class,
+                missIds -> userService.listByIds(missIds).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                Duration.ofMinutes(RedisConstants.CACHE_USER_TTL));
     }
 }
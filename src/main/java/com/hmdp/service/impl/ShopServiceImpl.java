@@ -2,7 +2,6 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
@@ -10,6 +9,7 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilters;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
@@ -25,6 +25,8 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
 import java.time.Duration;
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -45,6 +47,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private BloomFilters bloomFilters;
+
     /**
      * 根据id查询商铺信息 (使用redis缓存)
      * @param id
@@ -118,6 +123,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 
 
+    /**
+     * 新增商铺信息
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        //1. 写入数据库
+        save(shop);
+        //2. 加入布隆过滤器
+        bloomFilters.add(BloomFilters.SHOP, shop.getId());
+        return Result.ok(shop.getId());
+    }
+
     /**
      * 更新商铺信息
      * @param shop 商铺数据
@@ -136,7 +155,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(id == null){
             return Result.fail("商铺id不存在！");
         }
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        cacheClient.delete(CACHE_SHOP_KEY + id);
         return Result.ok();
     }
 
@@ -150,12 +169,14 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         //1. 判断是否需要根据坐标查询
         if(x == null || y == null){
-            // 根据类型分页查询
+            // 根据类型分页查询id，店铺数据批量走缓存
             Page<Shop> page = query()
+                    .select("id")
                     .eq("type_id", typeId)
                     .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+            List<Long> ids = page.getRecords().stream().map(Shop::getId).collect(Collectors.toList());
             // 返回数据
-            return Result.ok(page.getRecords());
+            return Result.ok(queryShopsByIds(ids));
         }
 
         //2. 计算分页参数
@@ -195,15 +216,30 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             distanceMap.put(shopIdStr,distance);
         });
 
-        String idStr = StrUtil.join(",", ids);
-        //5. 根据id查询店铺
-        List<Shop> shops = query().in("id", ids).last("order by field(id," + idStr + ")").list();
-
-        //将店铺的距离字段添加上
-        for (Shop shop : shops) {
+        //5. 根据id批量查询店铺（一次 MGET，未命中的一次查库）
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (Shop cached : queryShopsByIds(ids)) {
+            //缓存里的对象是共享的，复制一份再添加距离字段
+            Shop shop = BeanUtil.copyProperties(cached, Shop.class);
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shops.add(shop);
         }
         //返回
         return Result.ok(shops);
     }
+
+    /**
+     * 按id批量查询店铺，顺序与ids一致，不存在的跳过
+     */
+    private List<Shop> queryShopsByIds(List<Long> ids) {
+        return cacheClient.queryBatch(
+                        CACHE_SHOP_KEY,
+                        ids,
+                        Shop.class,
+                        missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                        Duration.ofMinutes(CACHE_SHOP_TTL))
+                .stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
 }
@@ -1,17 +1,17 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.lang.ParameterizedTypeImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.lang.reflect.Type;
 import java.util.List;
 
 /**
@@ -25,8 +25,10 @@ import java.util.List;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    private static final Type SHOP_TYPE_LIST = new ParameterizedTypeImpl(new Type[]{ShopType.class}, null, List.class);
+
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private CacheClient cacheClient;
 
     /**
      * 查询 shop_type 表中的所有数据 (使用redis缓存)
@@ -34,23 +36,21 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
      */
     @Override
     public Result getTypeList() {
-        String key = "cache:shoptype:list";
         //1. 先查询redis
-        String shopTypeJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOPTYPE_KEY);
-        if(StrUtil.isNotBlank(shopTypeJson)){
-            //2. 非空则反序列化回结果
-            List<ShopType> shopTypeList = JSONUtil.toList(shopTypeJson, ShopType.class);
+        List<ShopType> shopTypeList = cacheClient.get(RedisConstants.CACHE_SHOPTYPE_KEY, SHOP_TYPE_LIST);
+        if(shopTypeList != null && !shopTypeList.isEmpty()){
+            //2. 命中直接返回
             return Result.ok(shopTypeList);
         }
 
         //3. redis 没有就查询数据库
-        List<ShopType> shopTypeList = query().orderByAsc("sort").list();
+        shopTypeList = query().orderByAsc("sort").list();
         if(shopTypeList == null || shopTypeList.size() == 0){
             return Result.fail("没有店铺类型 !");
         }
 
         //4. 查到存入redis
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(shopTypeList));
+        cacheClient.set(RedisConstants.CACHE_SHOPTYPE_KEY, shopTypeList, null);
 
         //5. 返回
         return Result.ok(shopTypeList);
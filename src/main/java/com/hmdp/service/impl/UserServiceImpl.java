@@ -10,6 +10,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilters;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
@@ -45,6 +46,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private BloomFilters bloomFilters;
+
     /**
      * 发送手机验证码
      */
@@ -89,6 +93,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if(user == null){
             user = createUserWithPhone(phone);
             save(user);
+            bloomFilters.add(BloomFilters.USER, user.getId());
         }
         //5. 无论是否存在，都会将用户信息保存到Redis中(HashMap存储)，方便后续获得当前登录信息（“登录态”存 Redis）
         //随机生成token，作为登录令牌
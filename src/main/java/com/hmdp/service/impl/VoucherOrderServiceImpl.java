@@ -1,31 +1,56 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.QueuePositionDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.UnpaidOrderQueue;
+import com.hmdp.utils.WaitingRoom;
 import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.RedisSystemException;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
 
 /**
  * <p>
@@ -36,7 +61,7 @@ import java.util.concurrent.Executors;
  * @since 2021-12-22
  */
 @Service
-public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
+public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService, SmartLifecycle {
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
@@ -48,114 +73,371 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
 
-    public static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    @Resource
+    private SeckillProperties seckillProperties;
 
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private UnpaidOrderQueue unpaidOrderQueue;
+
+    @Resource
+    private WaitingRoom waitingRoom;
+
+    /**
+     * 秒杀脚本返回值对应的提示：1 已售罄，2 超过限购，3 未开始，4 已结束，5 剩余库存不够购买件数
+     */
+    private static final String[] SECKILL_FAIL_MESSAGES = {null, "库存不足", "超过每人限购件数", "秒杀尚未开始！", "秒杀已经结束！", "库存不足"};
+
+    /**
+     * 处理失败后的暂停时间，避免数据库故障时空转
+     */
+    private static final long ERROR_BACKOFF_MILLIS = 1000;
+
+    /**
+     * 每批消费的订单数
+     */
+    private DistributionSummary batchSizeSummary;
+
+    /**
+     * 已落库的订单数，看它的速率就是消费速度
+     */
+    private Counter drainedCounter;
+
+    /**
+     * 订单消费线程池，线程数由 hmdp.seckill.consumer-threads 决定
+     */
+    private ExecutorService seckillOrderExecutor;
+
+    /**
+     * 本节点的消费者名
+     */
+    private final List<String> consumerNames = new ArrayList<>();
 
-    //设置线程？
-    private static final ExecutorService  SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    /**
+     * 每批订单 INSERT 的耗时
+     */
+    private Timer insertTimer;
+
+    /**
+     * 订单从 XADD 到落库的耗时，起点取 stream id 里的时间戳
+     */
+    private Timer latencyTimer;
+
+    /**
+     * 秒杀脚本耗时，下标是脚本返回值
+     */
+    private Timer[] seckillScriptTimers;
+
+    /**
+     * 停止时本节点留在 pending-list 里的消息数
+     */
+    private final AtomicLong pendingOnShutdown = new AtomicLong();
+
+    /**
+     * 为 false 后消费线程不再读新消息，处理完手上这一批就退出
+     */
+    private volatile boolean running;
 
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        batchSizeSummary = DistributionSummary.builder("seckill.order.batch.size")
+                .description("每批消费的订单数")
+                .register(meterRegistry);
+        drainedCounter = Counter.builder("seckill.order.drained")
+                .description("已落库的订单数")
+                .register(meterRegistry);
+        insertTimer = Timer.builder("seckill.order.insert")
+                .description("每批订单 INSERT 耗时")
+                .register(meterRegistry);
+        latencyTimer = Timer.builder("seckill.order.latency")
+                .description("订单从写入 stream 到落库的耗时")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        seckillScriptTimers = new Timer[SECKILL_FAIL_MESSAGES.length];
+        for (int i = 0; i < seckillScriptTimers.length; i++) {
+            seckillScriptTimers[i] = Timer.builder("seckill.lua")
+                    .tag("result", String.valueOf(i))
+                    .description("秒杀脚本耗时，按返回值区分")
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry);
+        }
+        Gauge.builder("seckill.order.pending.on-shutdown", pendingOnShutdown, AtomicLong::get)
+                .description("停止消费时本节点留在 pending-list 里的消息数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 容器启动完成后开始消费
+     */
+    @Override
+    public synchronized void start() {
+        int threads = seckillProperties.getConsumerThreads();
+        // 1.确保每个分区的消费者组存在 XGROUP CREATE stream.orders:{p} g1 0 MKSTREAM
+        for (String streamKey : seckillKeys.streamKeys()) {
+            createGroupIfAbsent(streamKey);
+        }
+        // 2.每个线程用 主机名-序号 作为消费者名，避免不同节点抢同一个消费者的 pending-list
+        String prefix = StrUtil.blankToDefault(seckillProperties.getConsumerPrefix(), NetUtil.getLocalHostName());
+        running = true;
+        consumerNames.clear();
+        seckillOrderExecutor = Executors.newFixedThreadPool(threads, ThreadUtil.newNamedThreadFactory("seckill-order-", false));
+        for (int i = 0; i < threads; i++) {
+            consumerNames.add(prefix + "-" + i);
+            seckillOrderExecutor.submit(new VoucherOrderHandler(
+                    prefix + "-" + i, seckillKeys.streamKeysOfConsumer(i, threads)));
+        }
+    }
+
+    @Override
+    public void stop() {
+        stop(() -> { });
+    }
+
+    /**
+     * 停止读新消息，等手上的批次落库并确认，最多等 shutdown-timeout，最后报告本节点留在 pending-list 里的消息数
+     */
+    @Override
+    public synchronized void stop(Runnable callback) {
+        if (!running) {
+            callback.run();
+            return;
+        }
+        running = false;
+        ExecutorService executor = seckillOrderExecutor;
+        executor.shutdown();
+        Thread drainer = new Thread(() -> {
+            try {
+                if (!executor.awaitTermination(seckillProperties.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                    log.warn("订单消费线程未在 " + seckillProperties.getShutdownTimeout() + " 内结束，强制停止");
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            } finally {
+                reportPending();
+                callback.run();
+            }
+        }, "seckill-order-drainer");
+        drainer.start();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 在 Web 服务器停止接收请求之后再停止消费（阶段越大越先停），在 Redis 连接关闭之前完成
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 2048;
+    }
+
+    /**
+     * 停止后本节点消费者在 pending-list 里剩下的消息数，由其他节点的恢复任务按退避时间认领
+     */
+    private void reportPending() {
+        try {
+            Map<String, Long> pending = new HashMap<>();
+            for (String streamKey : seckillKeys.streamKeys()) {
+                PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, SECKILL_ORDER_GROUP);
+                if (summary == null) {
+                    continue;
+                }
+                summary.getPendingMessagesPerConsumer().forEach((consumer, count) -> {
+                    if (consumerNames.contains(consumer)) {
+                        pending.merge(consumer, count, Long::sum);
+                    }
+                });
+            }
+            long total = pending.values().stream().mapToLong(Long::longValue).sum();
+            pendingOnShutdown.set(total);
+            if (total > 0) {
+                log.warn("订单消费者已停止，pending-list 剩余 " + total + " 条，交给恢复任务处理: " + pending);
+            } else {
+                log.debug("订单消费者已停止，pending-list 已清空");
+            }
+        } catch (Exception e) {
+            log.error("统计 pending 消息数失败", e);
+        }
+    }
+
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            stringRedisTemplate.opsForStream().createGroup(streamKey, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+        } catch (RedisSystemException e) {
+            // 组已存在 BUSYGROUP，忽略
+            if (!StrUtil.contains(e.getMostSpecificCause().getMessage(), "BUSYGROUP")) {
+                throw e;
+            }
+        }
     }
 
     private class VoucherOrderHandler implements Runnable {
 
+        /**
+         * 消费者名
+         */
+        private final Consumer consumer;
+
+        /**
+         * 本线程负责的 stream 分区
+         */
+        private final StreamOffset<String>[] newOffsets;
+
+        @SuppressWarnings("unchecked")
+        VoucherOrderHandler(String consumerName, List<String> streamKeys) {
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, consumerName);
+            this.newOffsets = new StreamOffset[streamKeys.size()];
+            for (int i = 0; i < streamKeys.size(); i++) {
+                newOffsets[i] = StreamOffset.create(streamKeys.get(i), ReadOffset.lastConsumed());
+            }
+        }
+
         @Override
         public void run() {
-            while (true) {
+            while (running) {
                 try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())
-                    );
+                    // 1.批量获取消息队列中的订单信息 XREADGROUP GROUP g1 host-i COUNT n BLOCK read-block STREAMS stream.orders:{p} >
+                    List<MapRecord<String, Object, Object>> list = readBatch();
                     // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有消息，继续下一次循环
+                    if (list.isEmpty()) {
+                        // 如果为空，说明没有消息，继续下一次循环
                         continue;
                     }
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.创建订单
-                    createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("stream.orders","g1",record.getId());
+                    // 3.解析数据并批量创建订单
+                    List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+                    for (MapRecord<String, Object, Object> record : list) {
+                        voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+                    }
+                    insertTimer.record(() -> createVoucherOrders(voucherOrders));
+                    // 4.订单状态改为已落库，加入待支付队列
+                    seckillOrderStatus.update(voucherOrders, SeckillOrderStatus.PERSISTED);
+                    unpaidOrderQueue.schedule(voucherOrders);
+                    // 5.每个分区一次 XACK 确认整批消息
+                    acknowledge(list);
+                    // 6.记录批大小、消费条数和端到端耗时
+                    batchSizeSummary.record(list.size());
+                    drainedCounter.increment(list.size());
+                    long now = System.currentTimeMillis();
+                    for (MapRecord<String, Object, Object> record : list) {
+                        latencyTimer.record(Math.max(now - record.getId().getTimestamp(), 0), TimeUnit.MILLISECONDS);
+                    }
                 } catch (Exception e) {
+                    // 未确认的消息留在 pending-list，由 VoucherOrderRecoveryJob 认领重试
                     log.error("处理订单异常", e);
-                    //处理异常消息
-                    handlePendingList();
+                    if (running) {
+                        ThreadUtil.sleep(ERROR_BACKOFF_MILLIS);
+                    }
                 }
             }
         }
 
-        private void handlePendingList() {
-            while (true) {
-                try {
-                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create("stream.orders", ReadOffset.from("0"))
-                    );
-                    // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有异常消息，结束循环
-                        break;
-                    }
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    // 3.创建订单
-                    createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-                } catch (Exception e) {
-                    log.error("处理pendding订单异常", e);
-                    try{
-                        Thread.sleep(20);
-                    }catch(Exception e1){
-                        e1.printStackTrace();
-                    }
+        private void acknowledge(List<MapRecord<String, Object, Object>> records) {
+            Map<String, List<RecordId>> idsByStream = new HashMap<>();
+            for (MapRecord<String, Object, Object> record : records) {
+                idsByStream.computeIfAbsent(record.getStream(), k -> new ArrayList<>()).add(record.getId());
+            }
+            idsByStream.forEach((stream, ids) -> stringRedisTemplate.opsForStream()
+                    .acknowledge(stream, SECKILL_ORDER_GROUP, ids.toArray(new RecordId[0])));
+        }
+
+        /**
+         * 凑一批消息：第一次最多阻塞 read-block，拿到消息后在 batchLinger 内继续读，直到凑满 batchSize；
+         * 停止后不再继续凑批
+         */
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            int batchSize = seckillProperties.getBatchSize();
+            List<MapRecord<String, Object, Object>> first = readNew(batchSize, seckillProperties.getReadBlock());
+            if (first == null || first.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(first);
+            long deadline = System.nanoTime() + seckillProperties.getBatchLinger().toNanos();
+            while (running && batch.size() < batchSize) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    break;
                 }
+                List<MapRecord<String, Object, Object>> more = readNew(batchSize - batch.size(), Duration.ofMillis(remainingMillis));
+                if (more == null || more.isEmpty()) {
+                    break;
+                }
+                batch.addAll(more);
             }
+            return batch;
+        }
+
+        private List<MapRecord<String, Object, Object>> readNew(int count, Duration block) {
+            return stringRedisTemplate.opsForStream().read(
+                    consumer,
+                    StreamReadOptions.empty().count(count).block(block),
+                    newOffsets
+            );
         }
     }
 
     /**
      * 实现秒杀卷下单
      * @param voucherId
+     * @param quantity
      * @return
      */
     @Override
-    public Result setkillVoucher(Long voucherId) {
+    public Result setkillVoucher(Long voucherId, Integer quantity) {
+        if (quantity == null || quantity < 1) {
+            return Result.fail("购买件数不正确");
+        }
+        //本地已标记售罄，直接返回，不再访问Redis
+        if (seckillSoldOutCache.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
         //获取用户
         Long userId = UserHolder.getUser().getId();
-        long orderId = redisIdWorker.nextId("order");
+        long orderId = idGenerator.nextId("order");
         //1. 执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
+        List<String> keys = new ArrayList<>();
+        keys.add(seckillKeys.voucherKey(voucherId));
+        keys.add(seckillKeys.orderKey(voucherId, userId));
+        keys.add(seckillKeys.statusKey(voucherId));
+        keys.add(seckillKeys.streamKeyOf(voucherId));
+        keys.addAll(seckillKeys.stockKeys(voucherId));
+        long start = System.nanoTime();
+        Long result = redisScriptRegistry.execute(
+                RedisScriptRegistry.SECKILL,
+                keys,
+                voucherId.toString(), userId.toString(), String.valueOf(orderId), quantity.toString()
         );
 
         int r = result.intValue();
+        seckillScriptTimers[r].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
         //2. 判断结果是否为0
+        if(r == 1){
+            //已售罄，标记售罄并通知其他节点
+            seckillSoldOutCache.markSoldOut(voucherId);
+        }
         if(r != 0){
             //不为0代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            return Result.fail(SECKILL_FAIL_MESSAGES[r]);
         }
 
         //todo 保存阻塞队列
@@ -164,6 +446,23 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         return Result.ok(orderId);
     }
 
+    @Override
+    public Result enqueue(Long voucherId) {
+        return Result.ok(waitingRoom.enqueue(voucherId, UserHolder.getUser().getId()));
+    }
+
+    @Override
+    public Result queuePosition(Long voucherId, String ticket) {
+        QueuePositionDTO position = waitingRoom.check(voucherId, UserHolder.getUser().getId(), ticket);
+        return position == null ? Result.fail("排队凭证无效") : Result.ok(position);
+    }
+
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long voucherId, Long orderId, boolean wait) {
+        //只读 Redis 里的订单状态，不查数据库
+        return seckillOrderStatus.query(voucherId, orderId, UserHolder.getUser().getId(), wait);
+    }
+
     @Override
     //数据库层面订单保存
     public Result createVoucherOrder(VoucherOrder voucherOrder) {
@@ -175,4 +474,73 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             return Result.ok(orderId);
     }
 
+    @Override
+    //数据库层面订单批量保存
+    public int createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        if (voucherOrders.isEmpty()) {
+            return 0;
+        }
+        return getBaseMapper().insertBatch(voucherOrders);
+    }
+
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelUnpaidOrders(Collection<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        //1. 锁住这批订单，只有未支付的会被取消
+        List<VoucherOrder> orders = getBaseMapper().selectForCancel(orderIds);
+        List<Long> unpaidIds = orders.stream()
+                .filter(order -> order.getStatus() == 1)
+                .map(VoucherOrder::getId)
+                .collect(Collectors.toList());
+        //2. 一条 UPDATE 改为已取消
+        if (!unpaidIds.isEmpty()) {
+            getBaseMapper().cancelBatch(unpaidIds);
+        }
+        //3. 返回已取消的订单；之前已取消的也返回，上次退库存失败时可以重做，由脚本按订单状态去重
+        return orders.stream()
+                .filter(order -> order.getStatus() == 1 || order.getStatus() == 4)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long returnSeckillStock(Long voucherId, List<VoucherOrder> orders, int status) {
+        if (orders.isEmpty()) {
+            return 0;
+        }
+        //KEYS：券信息、订单状态、全部库存段，再加本批用户所在的已购件数哈希（去重）
+        List<String> stockKeys = seckillKeys.stockKeys(voucherId);
+        List<String> keys = new ArrayList<>();
+        keys.add(seckillKeys.voucherKey(voucherId));
+        keys.add(seckillKeys.statusKey(voucherId));
+        keys.addAll(stockKeys);
+        Map<String, Integer> orderKeyIndex = new HashMap<>();
+        String[] args = new String[2 + orders.size() * 4];
+        args[0] = String.valueOf(stockKeys.size());
+        args[1] = String.valueOf(status);
+        for (int i = 0; i < orders.size(); i++) {
+            VoucherOrder order = orders.get(i);
+            String orderKey = seckillKeys.orderKey(voucherId, order.getUserId());
+            Integer index = orderKeyIndex.get(orderKey);
+            if (index == null) {
+                keys.add(orderKey);
+                //Lua 下标从 1 开始
+                index = keys.size();
+                orderKeyIndex.put(orderKey, index);
+            }
+            args[2 + 4 * i] = order.getId().toString();
+            args[3 + 4 * i] = order.getUserId().toString();
+            args[4 + 4 * i] = String.valueOf(order.getQuantity() == null ? 1 : order.getQuantity());
+            args[5 + 4 * i] = index.toString();
+        }
+        Long returned = redisScriptRegistry.execute(RedisScriptRegistry.SECKILL_CANCEL, keys, args);
+        if (returned != null && returned > 0) {
+            //有库存退回，清除各节点的售罄标记
+            seckillSoldOutCache.reset(voucherId);
+        }
+        return returned == null ? 0 : returned;
+    }
+
 }
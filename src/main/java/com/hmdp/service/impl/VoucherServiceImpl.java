@@ -5,18 +5,21 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.job.SeckillWarmUpJob;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutCache;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 
 /**
  * <p>
@@ -35,6 +38,15 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillWarmUpJob seckillWarmUpJob;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -56,10 +68,61 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         SeckillVoucher seckillVoucher = new SeckillVoucher();
         seckillVoucher.setVoucherId(voucher.getId());
         seckillVoucher.setStock(voucher.getStock());
+        seckillVoucher.setLimitPerUser(voucher.getLimitPerUser() == null ? 1 : voucher.getLimitPerUser());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        // 库存分段数、分桶数按初始库存确定，之后重建 Redis 库存也沿用
+        int stock = Math.max(voucher.getStock(), 0);
+        seckillVoucher.setStockSegments(seckillKeys.segmentsFor(stock));
+        seckillVoucher.setOrderBuckets(seckillKeys.bucketsFor(stock));
         seckillVoucherService.save(seckillVoucher);
-        //保存秒杀卷库存到Redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(),voucher.getStock().toString());
+        //保存秒杀卷库存和开始/结束时间到Redis
+        seckillWarmUpJob.warmUp(seckillVoucher, true);
+        //清除可能残留的售罄标记
+        seckillSoldOutCache.reset(voucher.getId());
+    }
+
+    /**
+     * 补充秒杀卷库存
+     * @param voucherId 秒杀卷id
+     * @param count 补充数量
+     */
+    @Override
+    @Transactional
+    public void addSeckillStock(Long voucherId, Integer count) {
+        // 更新数据库库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            throw new RuntimeException("秒杀卷不存在！");
+        }
+        // 事务提交后再改 Redis：回滚时不会多出库存
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                addRedisStock(voucherId, count);
+            }
+        });
+    }
+
+    /**
+     * 补充 Redis 库存，平均补到各段；还没预热的券不写，预热时按数据库库存建好
+     */
+    private void addRedisStock(Long voucherId, int count) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(seckillKeys.segmentsKey(voucherId)))) {
+            // 单独 INCRBY 出来的库存 key 会让预热的 MSETNX 一直失败
+            return;
+        }
+        int segments = seckillKeys.segmentsOf(voucherId);
+        int[] shares = SeckillKeys.split(count, segments);
+        for (int i = 0; i < segments; i++) {
+            if (shares[i] > 0) {
+                stringRedisTemplate.opsForValue().increment(seckillKeys.stockKey(voucherId, i, segments), shares[i]);
+            }
+        }
+        // 有库存了，清除各节点的售罄标记
+        seckillSoldOutCache.reset(voucherId);
     }
 }
@@ -0,0 +1,249 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.config.BloomFilterProperties;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+
+/**
+ * 商铺、博客、用户 id 的布隆过滤器
+ * <p>
+ * 启动时从 tb_shop、tb_blog、tb_user 读取全部 id 建好（已建好则直接加载），新增时添加；
+ * 一定不存在的 id 不再查 Redis 和数据库，也不用缓存空值。
+ * 添加和重建通过 pub/sub 通知其他节点更新本地副本，消息丢了由定时全量刷新兜底。
+ * 在监控端口上 GET /actuator/bloomfilter 查看状态，POST /actuator/bloomfilter/{name} 在线重建。
+ * </p>
+ */
+@Slf4j
+@Component
+@Endpoint(id = "bloomfilter")
+public class BloomFilters implements MessageListener {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+    public static final String USER = "user";
+
+    private static final String ADD = "add:";
+    private static final String REBUILT = "rebuilt:";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private BloomFilterProperties bloomFilterProperties;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 过滤器名 -> 过滤器，未启用时为空
+     */
+    private final Map<String, RedisBloomFilter> filters = new LinkedHashMap<>();
+
+    /**
+     * 过滤器名 -> 分页读取 id
+     */
+    private final Map<String, Function<Long, List<Long>>> idPagers = new HashMap<>();
+
+    /**
+     * 缓存 key 前缀 -> 过滤器名
+     */
+    private final Map<String, String> cachePrefixes = new HashMap<>();
+
+    /**
+     * 过滤器名 -> 判定一定不存在的次数
+     */
+    private final Map<String, Counter> rejectedCounters = new HashMap<>();
+
+    @PostConstruct
+    private void init() {
+        if (!bloomFilterProperties.isEnabled()) {
+            return;
+        }
+        register(SHOP, shopMapper);
+        register(BLOG, blogMapper);
+        register(USER, userMapper);
+        cachePrefixes.put(CACHE_SHOP_KEY, SHOP);
+        cachePrefixes.put(CACHE_BLOG_KEY, BLOG);
+        cachePrefixes.put(CACHE_USER_KEY, USER);
+    }
+
+    private <T> void register(String name, BaseMapper<T> mapper) {
+        filters.put(name, new RedisBloomFilter(name, stringRedisTemplate, redisScriptRegistry,
+                bloomFilterProperties.isLocalCopy()));
+        int pageSize = bloomFilterProperties.getRebuildPageSize();
+        idPagers.put(name, last -> mapper.selectObjs(new QueryWrapper<T>()
+                        .select("id").gt("id", last).orderByAsc("id").last("limit " + pageSize))
+                .stream()
+                .map(id -> ((Number) id).longValue())
+                .collect(Collectors.toList()));
+        rejectedCounters.put(name, Counter.builder("bloom.filter.rejected")
+                .tag("filter", name)
+                .description("布隆过滤器判定一定不存在的次数")
+                .register(meterRegistry));
+    }
+
+    /**
+     * id 是否可能存在，未启用或还没建好时返回 true
+     */
+    public boolean mightContain(String name, Object id) {
+        RedisBloomFilter filter = filters.get(name);
+        if (filter == null || filter.mightContain(id)) {
+            return true;
+        }
+        rejectedCounters.get(name).increment();
+        return false;
+    }
+
+    /**
+     * 按缓存 key 前缀判断，没有对应过滤器的前缀返回 true
+     */
+    public boolean mightContainKey(String keyPrefix, Object id) {
+        String name = cachePrefixes.get(keyPrefix);
+        return name == null || mightContain(name, id);
+    }
+
+    /**
+     * 新增数据后添加 id 并通知其他节点
+     */
+    public void add(String name, Object id) {
+        RedisBloomFilter filter = filters.get(name);
+        if (filter == null) {
+            return;
+        }
+        filter.add(id);
+        stringRedisTemplate.convertAndSend(BLOOM_FILTER_CHANNEL, ADD + name + ":" + id);
+    }
+
+    /**
+     * 启动时加载，还没建好的由拿到锁的节点重建
+     */
+    public void loadAll() {
+        for (RedisBloomFilter filter : filters.values()) {
+            try {
+                filter.refresh();
+                if (!filter.isReady()) {
+                    rebuild(filter.getName());
+                }
+            } catch (Exception e) {
+                log.error("布隆过滤器加载失败, name={}", filter.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * 重新读取元数据和本地副本
+     */
+    public void refreshAll() {
+        for (RedisBloomFilter filter : filters.values()) {
+            try {
+                filter.refresh();
+            } catch (Exception e) {
+                log.warn("布隆过滤器刷新失败, name={}", filter.getName(), e);
+            }
+        }
+    }
+
+    @ReadOperation
+    public List<Map<String, Object>> report() {
+        List<Map<String, Object>> report = new ArrayList<>();
+        for (RedisBloomFilter filter : filters.values()) {
+            Map<String, Object> stats = filter.stats();
+            stats.put("expectedInsertions", bloomFilterProperties.expectedInsertionsOf(filter.getName()));
+            stats.put("fpp", bloomFilterProperties.getFpp());
+            report.add(stats);
+        }
+        return report;
+    }
+
+    /**
+     * 在线重建，同一个过滤器同一时间只有一个节点在重建；重建期间旧位图继续使用
+     */
+    @WriteOperation
+    public Map<String, Object> rebuild(@Selector String name) {
+        RedisBloomFilter filter = filters.get(name);
+        if (filter == null) {
+            throw new IllegalArgumentException("布隆过滤器不存在或未启用: " + name);
+        }
+        RLock lock = redissonClient.getLock("lock:" + RedisConstants.BLOOM_FILTER_KEY + name);
+        if (!lock.tryLock()) {
+            Map<String, Object> stats = filter.stats();
+            stats.put("message", "其他节点正在重建");
+            return stats;
+        }
+        try {
+            filter.rebuild(idPagers.get(name), bloomFilterProperties.expectedInsertionsOf(name),
+                    bloomFilterProperties.getFpp(), bloomFilterProperties.getMaxMemory().toBytes() * 8);
+        } finally {
+            lock.unlock();
+        }
+        stringRedisTemplate.convertAndSend(BLOOM_FILTER_CHANNEL, REBUILT + name);
+        return filter.stats();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        // 消息格式：add:过滤器名:id 或 rebuilt:过滤器名
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(ADD)) {
+            int colon = body.indexOf(':', ADD.length());
+            RedisBloomFilter filter = colon < 0 ? null : filters.get(body.substring(ADD.length(), colon));
+            if (filter != null) {
+                filter.addLocal(body.substring(colon + 1));
+            }
+        } else if (body.startsWith(REBUILT)) {
+            RedisBloomFilter filter = filters.get(body.substring(REBUILT.length()));
+            if (filter != null) {
+                filter.refresh();
+            }
+        } else {
+            log.warn("无法识别的布隆过滤器消息: {}", body);
+        }
+    }
+}
@@ -1,28 +1,100 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.ParameterizedTypeImpl;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.IdUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.CacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
-
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
+
+/**
+ * 缓存工具
+ * <p>
+ * 可选的本地一级缓存（Caffeine，按个数 W-TinyLFU 淘汰 + 写入后过期）挡在 Redis 前面，
+ * 命中时不访问 Redis 也不用反序列化。写入和删除都通过 pub/sub 广播 key，各节点收到后删掉本地副本；
+ * 消息丢了也最多读到 ttl 时间的旧值。逻辑过期缓存需要按过期时间重建，不进本地缓存。
+ * </p>
+ */
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+
+    /**
+     * 本地缓存里的空值标记
+     */
+    private static final Object NULL_VALUE = new Object();
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 本地一级缓存，未启用时为 null
+     */
+    private final Cache<String, Object> localCache;
+
+    /**
+     * 本节点标识，收到自己发出的失效消息时跳过
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID();
+
+    private final Counter l1Hit;
+    private final Counter l1Miss;
+    private final Counter l2Hit;
+    private final Counter l2Miss;
+
+    /**
+     * 正在重建的 key -> 重建结果，同一个 key 的并发未命中共用一次重建
+     */
+    private final Map<String, CompletableFuture<Object>> loadings = new ConcurrentHashMap<>();
+
+    private final CacheProperties cacheProperties;
+
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    private final BloomFilters bloomFilters;
+
+    private final CacheCodecs cacheCodecs;
+
+    private final Counter coalescedCounter;
+
+    private final Counter timeoutCounter;
+
     //创建线程池
     //用于：
     //👉 逻辑过期后 异步重建缓存
@@ -30,16 +102,73 @@ public class CacheClient {
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
     //构造方法注入StringRedisTemplate
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheProperties cacheProperties,
+                       RedisScriptRegistry redisScriptRegistry, BloomFilters bloomFilters, CacheCodecs cacheCodecs,
+                       MeterRegistry meterRegistry) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.bloomFilters = bloomFilters;
+        this.cacheCodecs = cacheCodecs;
+        this.cacheProperties = cacheProperties;
+        this.redisScriptRegistry = redisScriptRegistry;
+        CacheProperties.Local local = cacheProperties.getLocal();
+        this.localCache = local.isEnabled()
+                ? Caffeine.newBuilder()
+                        .maximumSize(local.getMaximumSize())
+                        .expireAfterWrite(local.getTtl())
+                        .build()
+                : null;
+        // 每一级的命中/未命中次数和命中率；L2 只统计 L1 没命中（或未启用）时的查询
+        this.l1Hit = getsCounter(meterRegistry, "l1", "hit");
+        this.l1Miss = getsCounter(meterRegistry, "l1", "miss");
+        this.l2Hit = getsCounter(meterRegistry, "l2", "hit");
+        this.l2Miss = getsCounter(meterRegistry, "l2", "miss");
+        hitRatioGauge(meterRegistry, "l1", l1Hit, l1Miss);
+        hitRatioGauge(meterRegistry, "l2", l2Hit, l2Miss);
+        this.coalescedCounter = Counter.builder("cache.load.coalesced")
+                .description("未命中时等待本节点同 key 重建结果的次数")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("cache.load.timeout")
+                .description("等待缓存重建超时、直接查库的次数")
+                .register(meterRegistry);
+        if (localCache != null) {
+            Gauge.builder("cache.l1.size", localCache, Cache::estimatedSize)
+                    .description("本地一级缓存的 key 数")
+                    .register(meterRegistry);
+        }
     }
 
     /**
-     *  普通缓存
+     *  普通缓存，duration 为 null 时不过期
      */
     public void set(String key, Object value, Duration duration) {
-        stringRedisTemplate.opsForValue()
-                .set(key, JSONUtil.toJsonStr(value), duration);
+        setBytes(key, cacheCodecs.encode(value), duration);
+        invalidate(key);
+        putLocal(key, value);
+    }
+
+    /**
+     *  按 key 读取普通缓存，未命中或命中空值返回 null
+     * @param type 目标类型，可以是 List&lt;ShopType&gt; 这样的泛型类型
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R get(String key, Type type) {
+        Object value = getLocal(key);
+        if (value == null) {
+            byte[] data = getRemote(key);
+            if (data == null) {
+                return null;
+            }
+            value = decode(key, data, type);
+        }
+        return value == NULL_VALUE ? null : (R) value;
+    }
+
+    /**
+     *  删除缓存，同时让所有节点的本地副本失效
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        invalidate(key);
     }
 
 
@@ -48,12 +177,12 @@ public class CacheClient {
      */
     public void setWithLogicalExpire(String key, Object value, Duration duration) {
         // 设置逻辑过期
-        RedisData redisData = new RedisData();
+        RedisData<Object> redisData = new RedisData<>();
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(duration.getSeconds()));
         // 写入Redis
-        stringRedisTemplate.opsForValue()
-                .set(key, JSONUtil.toJsonStr(redisData));
+        setBytes(key, cacheCodecs.encode(redisData), null);
+        invalidate(key);
     }
 
 
@@ -65,26 +194,30 @@ public class CacheClient {
             Function<ID, R> dbFallback, Duration duration) {
 
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        // 0.先查本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
         }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
+        // 布隆过滤器判定一定不存在，不查 Redis 和数据库
+        if (!bloomFilters.mightContainKey(keyPrefix, id)) {
             return null;
         }
+        // 1.从redis查询商铺缓存
+        byte[] data = getRemote(key);
+        // 2.判断是否存在
+        if (data != null) {
+            // 3.存在，直接返回；命中的是空值时返回 null
+            Object value = decode(key, data, type);
+            return value == NULL_VALUE ? null : type.cast(value);
+        }
 
         // 4.不存在，根据id查询数据库
         R r = dbFallback.apply(id);
         // 5.不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue()
-                    .set(key, "", Duration.ofMinutes(CACHE_NULL_TTL));
+            setNull(key);
 
             // 返回错误信息
             return null;
@@ -94,6 +227,83 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     *批量查询(缓存空值 + TTL)，结果与 ids 顺序一致，不存在的位置为 null
+     * <p>
+     * 本地缓存命中的、布隆过滤器判定不存在的先去掉，剩下的一次 MGET；Redis 未命中的一次批量查库，
+     * 查到的和空值用一个 pipeline 写回并广播失效。本地缓存里的对象是共享的，调用方不要修改。
+     * </p>
+     * @param dbFallback 按 id 批量查库，返回 id -> 数据，查不到的不放；返回 null 视为全部不存在
+     * @param duration 查到的数据的 TTL，为 null 时不过期
+     */
+    public <R, ID> List<R> queryBatch(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback, Duration duration) {
+
+        Map<ID, Object> values = new HashMap<>(ids.size() * 2);
+        // 1.查本地缓存和布隆过滤器，剩下的才查 Redis
+        List<ID> remoteIds = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = getLocal(keyPrefix + id);
+            if (local != null) {
+                values.put(id, local);
+            } else if (!bloomFilters.mightContainKey(keyPrefix, id)) {
+                values.put(id, NULL_VALUE);
+            } else {
+                remoteIds.add(id);
+            }
+        }
+        // 2.一次 MGET
+        List<ID> misses = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            byte[][] rawKeys = keys.stream().map(key -> key.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+            List<byte[]> datas = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+            for (int i = 0; i < remoteIds.size(); i++) {
+                byte[] data = datas == null ? null : datas.get(i);
+                (data != null ? l2Hit : l2Miss).increment();
+                if (data == null) {
+                    misses.add(remoteIds.get(i));
+                } else {
+                    values.put(remoteIds.get(i), decode(keys.get(i), data, type));
+                }
+            }
+        }
+        // 3.未命中的一次查库，查到的和空值用一个 pipeline 写回
+        if (!misses.isEmpty()) {
+            Map<ID, R> result = dbFallback.apply(misses);
+            Map<ID, R> loaded = result == null ? Collections.emptyMap() : result;
+            byte[] channel = CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : misses) {
+                    R r = loaded.get(id);
+                    String key = keyPrefix + id;
+                    if (r == null) {
+                        connection.set(key.getBytes(StandardCharsets.UTF_8), new byte[0],
+                                Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES), SetOption.upsert());
+                    } else if (duration == null) {
+                        connection.set(key.getBytes(StandardCharsets.UTF_8), cacheCodecs.encode(r));
+                    } else {
+                        connection.set(key.getBytes(StandardCharsets.UTF_8),
+                                cacheCodecs.encode(r),
+                                Expiration.from(duration.toMillis(), TimeUnit.MILLISECONDS), SetOption.upsert());
+                    }
+                    connection.publish(channel, (nodeId + ":" + key).getBytes(StandardCharsets.UTF_8));
+                    putLocal(key, r);
+                    values.put(id, toValue(r));
+                }
+                return null;
+            });
+        }
+        // 4.按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            Object value = values.get(id);
+            result.add(value == null || value == NULL_VALUE ? null : type.cast(value));
+        }
+        return result;
+    }
+
     /**
      *逻辑过期查询
      */
@@ -103,15 +313,16 @@ public class CacheClient {
 
         String key = keyPrefix + id;
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] data = getRemote(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
+        if (data == null || data.length == 0) {
             // 3.不存在，直接返回
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 4.命中，按 RedisData<R> 一次反序列化
+        RedisData<R> redisData = cacheCodecs.decode(data,
+                new ParameterizedTypeImpl(new Type[]{type}, null, RedisData.class));
+        R r = redisData.getData();
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5.判断是否过期
         if(expireTime.isAfter(LocalDateTime.now())) {
@@ -121,8 +332,9 @@ public class CacheClient {
         // 5.2.已过期，需要缓存重建
         // 6.缓存重建
         // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
+        String lockKey = lockKeyOf(key);
+        String owner = IdUtil.fastSimpleUUID();
+        boolean isLock = tryLock(lockKey, owner);
         // 6.2.判断是否获取锁成功
         if (isLock){
             // 6.3.成功，开启独立线程，实现缓存重建
@@ -136,7 +348,7 @@ public class CacheClient {
                     throw new RuntimeException(e);
                 }finally {
                     // 释放锁
-                    unlock(lockKey);
+                    unlock(lockKey, owner);
                 }
             });
         }
@@ -146,6 +358,10 @@ public class CacheClient {
 
     /**
      *互斥锁查询
+     * <p>
+     * 未命中时同一个 key 在本节点只有一个线程重建（共用一个 CompletableFuture），
+     * 只有它去抢 Redis 互斥锁，其他线程等结果完成，最多等 hmdp.cache.load-timeout，超时直接查库。
+     * </p>
      */
     public <R, ID> R queryWithMutex(
             String keyPrefix,
@@ -156,70 +372,250 @@ public class CacheClient {
 
         String key = keyPrefix + id;
 
+        // 0. 查询本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+        // 布隆过滤器判定一定不存在，不查 Redis 和数据库
+        if (!bloomFilters.mightContainKey(keyPrefix, id)) {
+            return null;
+        }
+
         // 1. 查询 Redis
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] data = getRemote(key);
 
-        // 2. 命中有效缓存
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
+        // 2. 命中有效缓存或缓存空值（防穿透）
+        if (data != null) {
+            Object value = decode(key, data, type);
+            return value == NULL_VALUE ? null : type.cast(value);
         }
 
-        // 3. 命中缓存空值（防穿透）
-        if (json != null) {
-            return null;
+        // 4. Redis 未命中：同一个 key 在本节点只有一个线程去重建，其他线程直接等它的结果
+        CompletableFuture<Object> loading = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = loadings.putIfAbsent(key, loading);
+        if (inFlight != null) {
+            coalescedCounter.increment();
+            return awaitLoad(inFlight, id, type, dbFallback);
         }
+        try {
+            Object value = load(key, id, type, dbFallback, duration);
+            loading.complete(value);
+            return value == NULL_VALUE ? null : type.cast(value);
+        } catch (RuntimeException e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadings.remove(key, loading);
+        }
+    }
 
-        // 4. Redis 未命中，尝试获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r;
-
+    /**
+     * 重建缓存：拿到跨节点互斥锁的查库写缓存，拿不到的退避后查 Redis 等别的节点写入，超时直接查库
+     * @return 查到的数据，不存在时为 NULL_VALUE
+     */
+    private <R, ID> Object load(String key, ID id, Class<R> type, Function<ID, R> dbFallback, Duration duration) {
+        String lockKey = lockKeyOf(key);
+        String owner = IdUtil.fastSimpleUUID();
+        // 抢锁最多等 load-timeout 的一半，留一半给查库，本节点等待的线程才能拿到结果
+        long deadline = System.nanoTime() + cacheProperties.getLoadTimeout().toNanos() / 2;
+        long backoff = 10;
+        // 5. 获取互斥锁，失败说明其他节点正在重建
+        while (!tryLock(lockKey, owner)) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                // 等不到其他节点的结果，直接查库，不写缓存
+                timeoutCounter.increment();
+                log.warn("等待缓存重建超时，直接查询数据库, key={}", key);
+                return toValue(dbFallback.apply(id));
+            }
+            sleep(Math.min(backoff, remaining));
+            backoff = Math.min(backoff * 2, 200);
+            byte[] data = getBytes(key);
+            if (data != null) {
+                return decode(key, data, type);
+            }
+        }
         try {
-            boolean isLock = tryLock(lockKey);
-            if (!isLock) {
-                // 获取锁失败，短暂休眠后重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, duration);
+            // 6. 拿到锁后再查一次 Redis，可能刚被其他节点写入
+            byte[] data = getBytes(key);
+            if (data != null) {
+                return decode(key, data, type);
             }
-
-            // 5. 获取锁成功，查询数据库
-            r = dbFallback.apply(id);
-
-            // 6. 数据库不存在，缓存空值
+            // 7. 查询数据库，不存在缓存空值
+            R r = dbFallback.apply(id);
             if (r == null) {
-                stringRedisTemplate.opsForValue()
-                        .set(key, "", Duration.ofMinutes(CACHE_NULL_TTL));
-                return null;
+                setNull(key);
+                return NULL_VALUE;
             }
-
-            // 7. 数据库存在，写入缓存
+            // 8. 存在，写入缓存
             this.set(key, r, duration);
+            return r;
+        } finally {
+            // 9. 释放自己持有的锁
+            unlock(lockKey, owner);
+        }
+    }
 
+    /**
+     * 等待本节点正在进行的重建，超时后直接查库
+     */
+    private <R, ID> R awaitLoad(CompletableFuture<Object> inFlight, ID id, Class<R> type, Function<ID, R> dbFallback) {
+        try {
+            Object value = inFlight.get(cacheProperties.getLoadTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            return value == NULL_VALUE ? null : type.cast(value);
+        } catch (TimeoutException e) {
+            timeoutCounter.increment();
+            log.warn("等待缓存重建超时，直接查询数据库, id={}", id);
+            return dbFallback.apply(id);
+        } catch (ExecutionException e) {
+            // 重建线程的异常原样抛给等待的线程
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
         } catch (InterruptedException e) {
-//            作用：重新设置当前线程的“中断标志位”，
-//            告诉上层代码：这个线程曾经被中断过。
-            //Thread.currentThread().interrupt();
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        } finally {
-            // 8. 释放锁
-            unlock(lockKey);
         }
+    }
 
-        return r;
+    /**
+     * 反序列化并放进本地缓存，空数组是缓存的空值，返回 NULL_VALUE
+     */
+    private Object decode(String key, byte[] data, Type type) {
+        if (data.length == 0) {
+            putLocal(key, null);
+            return NULL_VALUE;
+        }
+        Object value = cacheCodecs.decode(data, type);
+        putLocal(key, value);
+        return value;
+    }
+
+    private static Object toValue(Object r) {
+        return r == null ? NULL_VALUE : r;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
     }
 
+    /**
+     * 重建锁按缓存 key 区分，不同前缀下相同 id 的数据互不影响
+     */
+    private static String lockKeyOf(String key) {
+        return LOCK_CACHE_KEY + key;
+    }
 
     /**
-     * 加锁
+     * 加锁，值为持有者标识
      */
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", Duration.ofSeconds(10));
+    private boolean tryLock(String key, String owner){
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, owner, Duration.ofSeconds(LOCK_SHOP_TTL));
         return BooleanUtil.isTrue(flag);
     }
 
     /**
-     * 释放锁
+     * 释放锁，锁已过期被别人拿到时不删除
      */
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
+    private void unlock(String key, String owner){
+        redisScriptRegistry.execute(RedisScriptRegistry.UNLOCK, Collections.singletonList(key), owner);
+    }
+
+    /**
+     * 缓存空值（防穿透）
+     */
+    private void setNull(String key) {
+        setBytes(key, new byte[0], Duration.ofMinutes(CACHE_NULL_TTL));
+        invalidate(key);
+        putLocal(key, null);
+    }
+
+    /**
+     * 查本地缓存，未启用或未命中返回 null，命中空值返回 NULL_VALUE
+     */
+    private Object getLocal(String key) {
+        if (localCache == null) {
+            return null;
+        }
+        Object value = localCache.getIfPresent(key);
+        (value != null ? l1Hit : l1Miss).increment();
+        return value;
+    }
+
+    private void putLocal(String key, Object value) {
+        if (localCache != null) {
+            localCache.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    /**
+     * 查 Redis，空数组（空值缓存）也算命中
+     */
+    private byte[] getRemote(String key) {
+        byte[] data = getBytes(key);
+        (data != null ? l2Hit : l2Miss).increment();
+        return data;
+    }
+
+    private byte[] getBytes(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    private void setBytes(String key, byte[] value, Duration duration) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> duration == null
+                ? connection.set(rawKey, value)
+                : connection.set(rawKey, value,
+                        Expiration.from(duration.toMillis(), TimeUnit.MILLISECONDS), SetOption.upsert()));
+    }
+
+    /**
+     * 删除本地副本并广播，其他节点收到后删除各自的副本
+     */
+    private void invalidate(String key) {
+        if (localCache != null) {
+            localCache.invalidate(key);
+        }
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, nodeId + ":" + key);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (localCache == null) {
+            return;
+        }
+        // 消息格式：节点标识:key
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int colon = body.indexOf(':');
+        if (colon < 0) {
+            log.warn("无法识别的缓存失效消息: {}", body);
+            return;
+        }
+        if (!nodeId.equals(body.substring(0, colon))) {
+            localCache.invalidate(body.substring(colon + 1));
+        }
+    }
+
+    private static Counter getsCounter(MeterRegistry meterRegistry, String tier, String result) {
+        return Counter.builder("cache.gets")
+                .tag("tier", tier).tag("result", result)
+                .description("缓存查询次数")
+                .register(meterRegistry);
+    }
+
+    private static void hitRatioGauge(MeterRegistry meterRegistry, String tier, Counter hit, Counter miss) {
+        Gauge.builder("cache.hit.ratio", () -> {
+                    double total = hit.count() + miss.count();
+                    return total == 0 ? Double.NaN : hit.count() / total;
+                })
+                .tag("tier", tier)
+                .description("缓存命中率（启动以来）")
+                .register(meterRegistry);
     }
-}
\ No newline at end of file
+}
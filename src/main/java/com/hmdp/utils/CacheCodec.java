@@ -0,0 +1,31 @@
+package com.hmdp.utils;
+
+import java.lang.reflect.Type;
+
+/**
+ * 缓存值编解码 SPI
+ * <p>
+ * 实现类注册成 Spring Bean 后即可通过 hmdp.cache.codec 选用。
+ * 二进制编码的值由 CacheCodecs 加上版本头（魔数、编码 id、压缩标记），读取时按头选择编码，
+ * 所以 id 一经使用就不能再改。
+ * </p>
+ */
+public interface CacheCodec {
+
+    /**
+     * 名称，对应 hmdp.cache.codec
+     */
+    String name();
+
+    /**
+     * 写进版本头的编码 id，0 保留给不带版本头的旧 JSON
+     */
+    int id();
+
+    byte[] encode(Object value);
+
+    /**
+     * @param type 目标类型，可以是 List&lt;ShopType&gt; 这样的泛型类型
+     */
+    <T> T decode(byte[] data, Type type);
+}
@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 缓存值的编码选择、版本头和压缩
+ * <p>
+ * 二进制编码的格式：魔数 0xFE、编码 id、标记位（bit0 表示 deflate 压缩）各一个字节，后面是编码后的数据。
+ * 旧 JSON 以 { [ " 等开头，UTF-8 里不会出现 0xFE，据此区分，升级期间新旧格式都能读。
+ * </p>
+ */
+@Component
+public class CacheCodecs {
+
+    private static final byte MAGIC = (byte) 0xFE;
+
+    private static final int HEADER_LENGTH = 3;
+
+    private static final int FLAG_DEFLATE = 1;
+
+    /**
+     * 编码 id -> 编码
+     */
+    private final Map<Integer, CacheCodec> codecs = new HashMap<>();
+
+    /**
+     * 写入用的编码
+     */
+    private final CacheCodec writer;
+
+    private final long compressThreshold;
+
+    public CacheCodecs(List<CacheCodec> codecs, CacheProperties cacheProperties) {
+        for (CacheCodec codec : codecs) {
+            if (this.codecs.put(codec.id(), codec) != null) {
+                throw new IllegalStateException("缓存编码 id 重复: " + codec.id());
+            }
+        }
+        this.writer = codecs.stream()
+                .filter(codec -> codec.name().equals(cacheProperties.getCodec()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("未知的缓存编码: " + cacheProperties.getCodec()));
+        this.compressThreshold = cacheProperties.getCompressThreshold().toBytes();
+    }
+
+    public byte[] encode(Object value) {
+        byte[] body = writer.encode(value);
+        if (writer.id() == 0) {
+            // 旧 JSON 格式不带版本头
+            return body;
+        }
+        int flags = 0;
+        if (compressThreshold > 0 && body.length >= compressThreshold) {
+            byte[] deflated = deflate(body);
+            if (deflated.length < body.length) {
+                body = deflated;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+        byte[] data = new byte[HEADER_LENGTH + body.length];
+        data[0] = MAGIC;
+        data[1] = (byte) writer.id();
+        data[2] = (byte) flags;
+        System.arraycopy(body, 0, data, HEADER_LENGTH, body.length);
+        return data;
+    }
+
+    public <T> T decode(byte[] data, Type type) {
+        if (data.length < HEADER_LENGTH || data[0] != MAGIC) {
+            return codecs.get(0).decode(data, type);
+        }
+        CacheCodec codec = codecs.get(data[1] & 0xFF);
+        if (codec == null) {
+            throw new IllegalStateException("未知的缓存编码 id: " + (data[1] & 0xFF));
+        }
+        byte[] body = (data[2] & FLAG_DEFLATE) != 0
+                ? inflate(data)
+                : Arrays.copyOfRange(data, HEADER_LENGTH, data.length);
+        return codec.decode(body, type);
+    }
+
+    private static byte[] deflate(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater)) {
+            stream.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+        try (InflaterInputStream stream = new InflaterInputStream(
+                new ByteArrayInputStream(data, HEADER_LENGTH, data.length - HEADER_LENGTH))) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = stream.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
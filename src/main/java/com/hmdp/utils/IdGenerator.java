@@ -0,0 +1,14 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一ID生成器
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成下一个ID
+     * @param keyPrefix 业务前缀，例如 order
+     * @return 全局唯一、按时间递增的ID
+     */
+    long nextId(String keyPrefix);
+}
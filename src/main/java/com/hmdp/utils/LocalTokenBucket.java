@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+/**
+ * 本地令牌桶，只用来在访问 Redis 之前预检
+ */
+public class LocalTokenBucket {
+
+    private final double rate;
+
+    private final double burst;
+
+    private double tokens;
+
+    private long lastNanos;
+
+    /**
+     * @param rate 每秒生成的令牌数
+     * @param burst 桶容量
+     */
+    public LocalTokenBucket(double rate, int burst) {
+        if (!(rate > 0) || burst < 1) {
+            throw new IllegalArgumentException("令牌桶速率必须大于 0、容量不能小于 1: rate=" + rate + ", burst=" + burst);
+        }
+        this.rate = rate;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastNanos = System.nanoTime();
+    }
+
+    /**
+     * 尝试拿一个令牌
+     * @return 0 表示拿到了；否则是需要等待的毫秒数
+     */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastNanos) * rate / 1_000_000_000L);
+        lastNanos = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) * 1000 / rate);
+    }
+}
@@ -0,0 +1,128 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.RateLimitProperties;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+/**
+ * 限流拦截器
+ * <p>
+ * 按配置的接口映射路径找到规则，每个用户一个桶，配置了 targetVariable 时每个目标（如优惠券）再一个桶。
+ * 先用本地令牌桶预检，本地已经没有令牌的请求直接 429，不访问 Redis；
+ * 本地放行后再执行 rate_limit.lua，在 Redis 里对所有桶原子地扣令牌。
+ * 同一目标的桶带同一个 hash tag，保证一次脚本调用的 key 在同一个 slot。
+ * </p>
+ */
+@Slf4j
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    /**
+     * HTTP 方法 + 空格 + 映射路径 -> 规则，不限方法的规则方法记为 *
+     */
+    private final Map<String, RateLimitProperties.Route> routes = new HashMap<>();
+
+    /**
+     * Redis key -> 本地预检桶；Caffeine 读取不加全局锁，不会让所有请求在预检时排队
+     */
+    private final Cache<String, LocalTokenBucket> localBuckets;
+
+    //使用构造方法注入bean
+    public RateLimitInterceptor(RedisScriptRegistry redisScriptRegistry, RateLimitProperties rateLimitProperties) {
+        this.redisScriptRegistry = redisScriptRegistry;
+        for (RateLimitProperties.Route route : rateLimitProperties.getRoutes()) {
+            String method = StrUtil.isBlank(route.getMethod()) ? "*" : route.getMethod().toUpperCase();
+            routes.put(method + " " + route.getPattern(), route);
+        }
+        this.localBuckets = Caffeine.newBuilder()
+                .maximumSize(rateLimitProperties.getLocalCapacity())
+                .build();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //1. 找到请求命中的规则（DispatcherServlet 找 handler 时已经记下了匹配的映射路径）
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        RateLimitProperties.Route route = pattern == null ? null : routes.get(request.getMethod() + " " + pattern);
+        if (route == null && pattern != null) {
+            route = routes.get("* " + pattern);
+        }
+        if (route == null) {
+            return true;
+        }
+
+        //2. 计算桶的 key：用户桶（未登录按 ip），以及目标桶
+        UserDTO user = UserHolder.getUser();
+        String client = user != null ? user.getId().toString() : request.getRemoteAddr();
+        String target = targetOf(request, route);
+        List<String> keys = new ArrayList<>(2);
+        if (target == null) {
+            keys.add(RATE_LIMIT_KEY + route.getName() + ":{" + client + "}");
+        } else {
+            String targetKey = RATE_LIMIT_KEY + route.getName() + ":{" + target + "}";
+            keys.add(targetKey + ":" + client);
+            keys.add(targetKey);
+        }
+
+        //3. 本地预检
+        long wait = localBucket(keys.get(0), route.getUserRate(), route.getUserBurst()).tryAcquire();
+        if (wait == 0 && target != null) {
+            wait = localBucket(keys.get(1), route.getTargetRate(), route.getTargetBurst()).tryAcquire();
+        }
+        if (wait > 0) {
+            return reject(response, wait);
+        }
+
+        //4. Redis 令牌桶
+        String[] args = target == null
+                ? new String[]{String.valueOf(route.getUserRate()), String.valueOf(route.getUserBurst())}
+                : new String[]{String.valueOf(route.getUserRate()), String.valueOf(route.getUserBurst()),
+                               String.valueOf(route.getTargetRate()), String.valueOf(route.getTargetBurst())};
+        Long result;
+        try {
+            result = redisScriptRegistry.execute(RedisScriptRegistry.RATE_LIMIT, keys, args);
+        } catch (Exception e) {
+            //限流失败不影响正常请求
+            log.warn("限流脚本执行失败，放行, route={}", route.getName(), e);
+            return true;
+        }
+        return result == null || result == 0 || reject(response, result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String targetOf(HttpServletRequest request, RateLimitProperties.Route route) {
+        if (StrUtil.isBlank(route.getTargetVariable())) {
+            return null;
+        }
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        return variables == null ? null : variables.get(route.getTargetVariable());
+    }
+
+    private LocalTokenBucket localBucket(String key, double rate, int burst) {
+        return localBuckets.get(key, k -> new LocalTokenBucket(rate, burst));
+    }
+
+    /**
+     * 返回 429，Retry-After 告诉客户端多少秒后再试
+     */
+    private static boolean reject(HttpServletResponse response, long waitMillis) {
+        response.setStatus(429);
+        response.setHeader("Retry-After", String.valueOf((waitMillis + 999) / 1000));
+        return false;
+    }
+}
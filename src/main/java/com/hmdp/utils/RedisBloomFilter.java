@@ -0,0 +1,385 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY;
+
+/**
+ * 基于 Redis 位图的布隆过滤器
+ * <p>
+ * 元数据 bloom:{name} 是 hash：version 当前位图版本、bits 位数、hashes 哈希函数个数，重建期间还有 building；
+ * 位图存在 bloom:{name}:版本，重建期间新增的 id 记在 bloom:{name}:pending，三者 hash tag 相同。
+ * 位偏移由 MurmurHash 128 位结果的两半做双重哈希（h1 + i * h2）得到。
+ * 判断和添加都带上本地记下的版本，版本已被重建替换时脚本返回 -1，重新读元数据后再试一次。
+ * 还没建好（元数据不存在）时所有 id 都视为可能存在。
+ * 本地副本只用来快速放行：本地判定不存在时再查 Redis 位图确认，其他节点新增、消息还没到或丢了的 id 不会被误判为不存在。
+ * </p>
+ */
+@Slf4j
+public class RedisBloomFilter {
+
+    /**
+     * 重建时每次 SETRANGE 写入的字节数
+     */
+    private static final int WRITE_CHUNK = 1 << 20;
+
+    /**
+     * 重建时每次从 pending 集合取出的 id 数
+     */
+    private static final int PENDING_BATCH = 1000;
+
+    /**
+     * Redis 位图最多 2^32 位
+     */
+    private static final long MAX_BITS = 1L << 32;
+
+    private final String name;
+
+    private final String metaKey;
+
+    private final String pendingKey;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    private final boolean localCopy;
+
+    /**
+     * 当前位图，还没建好时为 null
+     */
+    private volatile Bitmap current;
+
+    /**
+     * 正在执行的 refresh 个数
+     */
+    private final AtomicInteger refreshing = new AtomicInteger();
+
+    /**
+     * refresh 期间同步到本地的 id，新位图换上后补进去
+     */
+    private final Queue<String> addedDuringRefresh = new ConcurrentLinkedQueue<>();
+
+    public RedisBloomFilter(String name, StringRedisTemplate stringRedisTemplate,
+                            RedisScriptRegistry redisScriptRegistry, boolean localCopy) {
+        this.name = name;
+        this.metaKey = BLOOM_FILTER_KEY + "{" + name + "}";
+        this.pendingKey = metaKey + ":pending";
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScriptRegistry = redisScriptRegistry;
+        this.localCopy = localCopy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 是否已经建好
+     */
+    public boolean isReady() {
+        return current != null;
+    }
+
+    /**
+     * 读取元数据，启用本地副本时同时拉取整张位图
+     */
+    public void refresh() {
+        refreshing.incrementAndGet();
+        try {
+            Map<Object, Object> meta = stringRedisTemplate.opsForHash().entries(metaKey);
+            Object version = meta.get("version");
+            if (version == null) {
+                current = null;
+                return;
+            }
+            Bitmap bitmap = new Bitmap(version.toString(),
+                    Long.parseLong(meta.get("bits").toString()), Integer.parseInt(meta.get("hashes").toString()));
+            if (localCopy) {
+                // 刚好被重建替换时拿不到，先走 Redis 判断，下次刷新再拉
+                byte[] key = bitmapKey(bitmap.version).getBytes(StandardCharsets.UTF_8);
+                bitmap.data = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+            }
+            current = bitmap;
+            // GET 之后、换上之前同步过来的 id 补进新位图
+            String id;
+            while ((id = addedDuringRefresh.poll()) != null) {
+                bitmap.set(bitmap.offsets(id));
+            }
+        } finally {
+            refreshing.decrementAndGet();
+        }
+    }
+
+    /**
+     * id 是否可能存在，返回 false 时一定不存在
+     */
+    public boolean mightContain(Object id) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Bitmap bitmap = current;
+            if (bitmap == null) {
+                return true;
+            }
+            long[] offsets = bitmap.offsets(id);
+            if (bitmap.data != null && bitmap.test(offsets)) {
+                return true;
+            }
+            // 没有本地副本，或者本地判定不存在（其他节点新增的 id 可能还没同步过来），以 Redis 为准
+            Long result = redisScriptRegistry.execute(RedisScriptRegistry.BLOOM_CHECK,
+                    Arrays.asList(metaKey, bitmapKey(bitmap.version)), args(bitmap.version, null, offsets));
+            if (result != null && result >= 0) {
+                if (result == 1) {
+                    // 补上本地副本
+                    bitmap.set(offsets);
+                }
+                return result == 1;
+            }
+            // 位图已被重建替换
+            refresh();
+        }
+        return true;
+    }
+
+    /**
+     * 添加 id，正在重建时同时记到 pending 集合
+     */
+    public void add(Object id) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Bitmap bitmap = current;
+            String version = bitmap == null ? "" : bitmap.version;
+            long[] offsets = bitmap == null ? new long[0] : bitmap.offsets(id);
+            Long result = redisScriptRegistry.execute(RedisScriptRegistry.BLOOM_ADD,
+                    Arrays.asList(metaKey, bitmapKey(version), pendingKey), args(version, id, offsets));
+            if (result != null && result == 1) {
+                addLocal(id);
+                return;
+            }
+            refresh();
+            if (current == null) {
+                // 还没建好，建好时会从数据库读到这个 id
+                return;
+            }
+        }
+    }
+
+    /**
+     * 其他节点添加了 id，同步到本地副本
+     */
+    public void addLocal(Object id) {
+        if (!localCopy) {
+            return;
+        }
+        // 先记下再写当前位图：refresh 拉到的位图可能早于这次添加，换上后由 refresh 补进去
+        if (refreshing.get() > 0) {
+            addedDuringRefresh.add(id.toString());
+        }
+        Bitmap bitmap = current;
+        if (bitmap != null) {
+            bitmap.set(bitmap.offsets(id));
+        }
+    }
+
+    /**
+     * 按 id 全量重建：在本地算好整张新位图，分块写入新版本的 key，补上重建期间新增的 id 后切换版本
+     * <p>
+     * 调用方需保证同一时间只有一个节点在重建。
+     * </p>
+     * @param idPager 给定上一页最后一个 id，返回下一页 id（升序），没有更多时返回空
+     */
+    public void rebuild(Function<Long, List<Long>> idPager, long expectedInsertions, double fpp, long maxBits) {
+        long bits = optimalBits(expectedInsertions, fpp, Math.min(maxBits, MAX_BITS));
+        Bitmap bitmap = new Bitmap(String.valueOf(System.currentTimeMillis()), bits,
+                optimalHashes(expectedInsertions, bits));
+        bitmap.data = new byte[(int) (bits >>> 3)];
+        String newKey = bitmapKey(bitmap.version);
+        String token = IdUtil.fastSimpleUUID();
+        // 1.标记重建中，之后新增的 id 会记到 pending 集合
+        stringRedisTemplate.delete(pendingKey);
+        stringRedisTemplate.opsForHash().put(metaKey, "building", token);
+        try {
+            // 2.分页读取全部 id，在本地置位
+            long count = 0;
+            long last = 0;
+            List<Long> ids;
+            while (!(ids = idPager.apply(last)).isEmpty()) {
+                for (Long id : ids) {
+                    bitmap.set(bitmap.offsets(id));
+                }
+                count += ids.size();
+                last = ids.get(ids.size() - 1);
+            }
+            // 3.分块写入新位图
+            byte[] key = newKey.getBytes(StandardCharsets.UTF_8);
+            byte[] data = bitmap.data;
+            stringRedisTemplate.execute((RedisCallback<Void>) connection -> {
+                for (int offset = 0; offset < data.length; offset += WRITE_CHUNK) {
+                    connection.setRange(key, Arrays.copyOfRange(data, offset, Math.min(offset + WRITE_CHUNK, data.length)), offset);
+                }
+                return null;
+            });
+            // 4.补上重建期间新增的 id 再切换，切换时又有新增就再补一轮
+            Object oldVersion = stringRedisTemplate.opsForHash().get(metaKey, "version");
+            String oldKey = bitmapKey(oldVersion == null ? "" : oldVersion.toString());
+            while (true) {
+                List<String> added = stringRedisTemplate.opsForSet().pop(pendingKey, PENDING_BATCH);
+                if (added != null && !added.isEmpty()) {
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        for (String id : added) {
+                            long[] offsets = bitmap.offsets(id);
+                            bitmap.set(offsets);
+                            for (long offset : offsets) {
+                                connection.setBit(key, offset, true);
+                            }
+                        }
+                        return null;
+                    });
+                    count += added.size();
+                    continue;
+                }
+                Long result = redisScriptRegistry.execute(RedisScriptRegistry.BLOOM_SWITCH,
+                        Arrays.asList(metaKey, pendingKey, oldKey),
+                        token, bitmap.version, String.valueOf(bits), String.valueOf(bitmap.hashes));
+                if (result == null || result < 0) {
+                    throw new IllegalStateException("布隆过滤器重建标记已失效: " + name);
+                }
+                if (result == 0) {
+                    break;
+                }
+            }
+            if (!localCopy) {
+                bitmap.data = null;
+            }
+            current = bitmap;
+            log.info("布隆过滤器已重建, name={}, count={}, bits={}, hashes={}", name, count, bits, bitmap.hashes);
+        } catch (RuntimeException e) {
+            // 失败时删掉写了一半的新位图，旧位图继续使用
+            stringRedisTemplate.opsForHash().delete(metaKey, "building");
+            stringRedisTemplate.delete(newKey);
+            throw e;
+        }
+    }
+
+    /**
+     * 当前状态：版本、位数、哈希函数个数、内存占用和按置位比例估算的误判率
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        Bitmap bitmap = current;
+        if (bitmap == null) {
+            stats.put("ready", false);
+            return stats;
+        }
+        byte[] key = bitmapKey(bitmap.version).getBytes(StandardCharsets.UTF_8);
+        Long ones = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(key));
+        stats.put("ready", true);
+        stats.put("version", bitmap.version);
+        stats.put("bits", bitmap.bits);
+        stats.put("hashes", bitmap.hashes);
+        stats.put("memoryBytes", bitmap.bits >>> 3);
+        stats.put("localCopy", bitmap.data != null);
+        stats.put("building", stringRedisTemplate.opsForHash().hasKey(metaKey, "building"));
+        if (ones != null) {
+            stats.put("estimatedFpp", Math.pow((double) ones / bitmap.bits, bitmap.hashes));
+        }
+        return stats;
+    }
+
+    private String bitmapKey(String version) {
+        return metaKey + ":" + version;
+    }
+
+    private static String[] args(String version, Object id, long[] offsets) {
+        int head = id == null ? 1 : 2;
+        String[] args = new String[head + offsets.length];
+        args[0] = version;
+        if (id != null) {
+            args[1] = id.toString();
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            args[head + i] = String.valueOf(offsets[i]);
+        }
+        return args;
+    }
+
+    /**
+     * m = -n * ln(p) / (ln2)^2，按 8 位取整，不超过上限
+     */
+    static long optimalBits(long expectedInsertions, double fpp, long maxBits) {
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        bits = Math.max(Math.min(bits, maxBits), 64);
+        return bits & ~7L;
+    }
+
+    /**
+     * k = m / n * ln2
+     */
+    static int optimalHashes(long expectedInsertions, long bits) {
+        return Math.max(1, (int) Math.round((double) bits / Math.max(expectedInsertions, 1) * Math.log(2)));
+    }
+
+    /**
+     * 一个版本的位图参数和本地副本，位顺序与 Redis 相同（每个字节高位在前）
+     */
+    private static class Bitmap {
+        final String version;
+        final long bits;
+        final int hashes;
+        volatile byte[] data;
+
+        Bitmap(String version, long bits, int hashes) {
+            this.version = version;
+            this.bits = bits;
+            this.hashes = hashes;
+        }
+
+        long[] offsets(Object id) {
+            long[] hash = MurmurHash.hash128(id.toString());
+            long[] offsets = new long[hashes];
+            long combined = hash[0];
+            for (int i = 0; i < hashes; i++) {
+                offsets[i] = (combined & Long.MAX_VALUE) % bits;
+                combined += hash[1];
+            }
+            return offsets;
+        }
+
+        boolean test(long[] offsets) {
+            byte[] data = this.data;
+            for (long offset : offsets) {
+                int index = (int) (offset >>> 3);
+                if (index >= data.length || (data[index] & (0x80 >>> (offset & 7))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized void set(long[] offsets) {
+            byte[] data = this.data;
+            if (data == null) {
+                return;
+            }
+            for (long offset : offsets) {
+                int index = (int) (offset >>> 3);
+                if (index < data.length) {
+                    data[index] |= (byte) (0x80 >>> (offset & 7));
+                }
+            }
+        }
+    }
+}
@@ -13,13 +13,39 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
+    public static final String LOCK_CACHE_KEY = "lock:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_SEGMENTS_KEY = "seckill:segments:";
+    public static final String SECKILL_BUCKETS_KEY = "seckill:buckets:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_DLQ_KEY = "stream.orders.dlq";
+    public static final String SECKILL_ORDER_ARCHIVE_KEY = "stream.orders.archived";
+    public static final String SECKILL_DRY_RUN_PREFIX = "dryrun:";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_LAYOUT_CHANNEL = "seckill:layout";
+    public static final String SECKILL_QUEUE_KEY = "seckill:queue:";
+    public static final String SECKILL_UNPAID_KEY = "seckill:unpaid:";
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:status:";
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "seckill:order:status";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+
+    public static final String RATE_LIMIT_KEY = "rate:limit:";
+
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+    public static final String BLOOM_FILTER_CHANNEL = "bloom:filter";
 }
@@ -8,7 +8,7 @@ import java.time.LocalDateTime;
  * 设置逻辑过期时间的类
  */
 @Data
-public class RedisData {
+public class RedisData<T> {
     private LocalDateTime expireTime;
-    private Object data;
+    private T data;
 }
@@ -1,18 +1,31 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 生成全局唯一ID
+ * <p>
+ * 号段模式（segment-size > 1）：每个前缀一次 INCRBY 从 Redis 领取一段序列号，在本地用原子计数器发放，
+ * 用到 80% 时异步预取下一段，正常情况下 nextId 不访问 Redis。ID 结构不变：时间戳 << 32 | 序列号。
+ * </p>
  */
+@Slf4j
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdGenerator {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
@@ -27,23 +40,162 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    //号段预取线程
+    private static final ExecutorService SEGMENT_PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 每次从 Redis 领取的序列号个数，1 表示每个 ID 都 INCR 一次
+     */
+    @Value("${hmdp.id.segment-size:1000}")
+    private int segmentSize;
+
+    /**
+     * 前缀 -> 号段
+     */
+    private final Map<String, IdSegment> segments = new ConcurrentHashMap<>();
+
+    /**
+     * 最近一次格式化的日期，一天只格式化一次
+     */
+    private volatile DayKey dayKey = new DayKey(-1, null);
+
+    @Override
     public long nextId(String keyPrefix){
         //1. 生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        //使用 UTC：
-        //避免服务器时区不一致导致 ID 混乱
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        //与 LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) 相同：本地时间按 UTC 换算的秒数
+        long nowMillis = System.currentTimeMillis();
+        long nowSecond = (nowMillis + TimeZone.getDefault().getOffset(nowMillis)) / 1000;
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
-        //2. 生成序列号
-        //获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        //2. 生成序列号，按天区分
+        long day = nowSecond / SECONDS_PER_DAY;
+        long count = segmentSize <= 1
+                ? increment(keyPrefix, day, 1)
+                : segments.computeIfAbsent(keyPrefix, IdSegment::new).next(day);
 
         //3. 拼接返回
         //时间戳左移 32 位
         //把 Redis 生成的自增序列号放到低 32 位
         return timestamp << COUNT_BITS | count;
     }
+
+    /**
+     * INCRBY icr:前缀:日期 delta，返回增加后的值
+     */
+    private long increment(String keyPrefix, long day, long delta) {
+        Long value = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + dateOf(day), delta);
+        if (value == null) {
+            throw new IllegalStateException("生成ID失败：Redis 未返回序列号");
+        }
+        return value;
+    }
+
+    private String dateOf(long day) {
+        DayKey current = dayKey;
+        if (current.day != day) {
+            current = new DayKey(day, LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
+            dayKey = current;
+        }
+        return current.date;
+    }
+
+    private static class DayKey {
+        final long day;
+        final String date;
+
+        DayKey(long day, String date) {
+            this.day = day;
+            this.date = date;
+        }
+    }
+
+    /**
+     * 一段序列号 [start, max]
+     */
+    private static class Block {
+        final long day;
+        final long start;
+        final long max;
+        final AtomicLong cursor;
+
+        Block(long day, long max, long size) {
+            this.day = day;
+            this.max = max;
+            this.start = max - size + 1;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    /**
+     * 某个前缀的号段：当前段 + 预取的下一段
+     */
+    private class IdSegment {
+
+        private final String keyPrefix;
+
+        private volatile Block current;
+
+        private volatile CompletableFuture<Block> next;
+
+        IdSegment(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(long day) {
+            while (true) {
+                Block block = current;
+                if (block == null || block.day != day) {
+                    //第一次使用或跨天：丢掉旧号段，按新日期同步领取
+                    switchBlock(block, day);
+                    continue;
+                }
+                long value = block.cursor.getAndIncrement();
+                if (value <= block.max) {
+                    //用到 80% 时预取下一段，每段只会有一个线程拿到这个值
+                    if (value == block.start + segmentSize * 4L / 5) {
+                        prefetch(day);
+                    }
+                    return value;
+                }
+                //当前段用完，切换到下一段
+                switchBlock(block, day);
+            }
+        }
+
+        private synchronized void switchBlock(Block exhausted, long day) {
+            if (current != exhausted) {
+                //其他线程已经切换过
+                return;
+            }
+            CompletableFuture<Block> prefetched = next;
+            next = null;
+            Block block = null;
+            if (prefetched != null) {
+                try {
+                    block = prefetched.join();
+                } catch (Exception e) {
+                    log.warn("预取号段失败，同步领取, prefix={}", keyPrefix, e);
+                }
+            }
+            current = block != null && block.day == day ? block : fetch(day);
+        }
+
+        private synchronized void prefetch(long day) {
+            if (next == null) {
+                next = CompletableFuture.supplyAsync(() -> fetch(day), SEGMENT_PREFETCH_EXECUTOR);
+            }
+        }
+
+        private Block fetch(long day) {
+            return new Block(day, increment(keyPrefix, day, segmentSize), segmentSize);
+        }
+    }
 }
@@ -0,0 +1,156 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lua 脚本注册表
+ * <p>
+ * 启动时把所有脚本 SCRIPT LOAD 到 Redis，之后只用 EVALSHA 调用，不再每次发送脚本正文；
+ * Redis 重启或 SCRIPT FLUSH 后返回 NOSCRIPT 时自动重新加载并重试一次。
+ * 脚本用到的 key 都要通过 KEYS 传入，便于在 Redis Cluster 上按 slot 路由。
+ * </p>
+ */
+@Slf4j
+@Component
+public class RedisScriptRegistry {
+
+    private static final List<DefaultRedisScript<?>> SCRIPTS = new ArrayList<>();
+
+    /**
+     * 秒杀资格判断、扣库存、发送订单消息
+     */
+    public static final RedisScript<Long> SECKILL = register("seckill.lua", Long.class);
+
+    /**
+     * 取消超时未支付订单：退库存、移出已下单用户集合
+     */
+    public static final RedisScript<Long> SECKILL_CANCEL = register("seckill_cancel.lua", Long.class);
+
+    /**
+     * 批量写订单状态，不覆盖已取消和失败
+     */
+    @SuppressWarnings("rawtypes")
+    public static final RedisScript<List> SECKILL_STATUS = register("seckill_status.lua", List.class);
+
+    /**
+     * 租约续期
+     */
+    public static final RedisScript<Long> LEASE_RENEW = register("lease_renew.lua", Long.class);
+
+    /**
+     * 释放互斥锁，只删除自己持有的锁
+     */
+    public static final RedisScript<Long> UNLOCK = register("unlock.lua", Long.class);
+
+    /**
+     * 令牌桶限流
+     */
+    public static final RedisScript<Long> RATE_LIMIT = register("rate_limit.lua", Long.class);
+
+    /**
+     * 按最小 id 裁剪 stream
+     */
+    public static final RedisScript<Long> STREAM_TRIM = register("stream_trim.lua", Long.class);
+
+    /**
+     * 布隆过滤器判断
+     */
+    public static final RedisScript<Long> BLOOM_CHECK = register("bloom_check.lua", Long.class);
+
+    /**
+     * 布隆过滤器添加，重建期间同时记下新增的 id
+     */
+    public static final RedisScript<Long> BLOOM_ADD = register("bloom_add.lua", Long.class);
+
+    /**
+     * 布隆过滤器重建完成后切换位图
+     */
+    public static final RedisScript<Long> BLOOM_SWITCH = register("bloom_switch.lua", Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private static <T> RedisScript<T> register(String location, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(resultType);
+        SCRIPTS.add(script);
+        return script;
+    }
+
+    /**
+     * 启动时加载全部脚本
+     */
+    @PostConstruct
+    public void loadAll() {
+        stringRedisTemplate.execute((RedisCallback<Void>) connection -> {
+            for (DefaultRedisScript<?> script : SCRIPTS) {
+                load(connection, script);
+            }
+            return null;
+        });
+        log.info("已加载 {} 个 Lua 脚本", SCRIPTS.size());
+    }
+
+    /**
+     * EVALSHA 执行脚本，NOSCRIPT 时重新加载后重试
+     * @param script 注册过的脚本
+     * @param keys 脚本用到的全部 key
+     * @param args 参数
+     */
+    public <T> T execute(RedisScript<T> script, List<String> keys, String... args) {
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysAndArgs[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i < args.length; i++) {
+            keysAndArgs[keys.size() + i] = args[i].getBytes(StandardCharsets.UTF_8);
+        }
+        ReturnType returnType = ReturnType.fromJavaType(script.getResultType());
+        Object result = stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            try {
+                return connection.evalSha(script.getSha1(), returnType, keys.size(), keysAndArgs);
+            } catch (RuntimeException e) {
+                if (!isNoScript(e)) {
+                    throw e;
+                }
+                log.warn("脚本 {} 不存在，重新加载", script.getSha1());
+                load(connection, (DefaultRedisScript<?>) script);
+                return connection.evalSha(script.getSha1(), returnType, keys.size(), keysAndArgs);
+            }
+        });
+        return convert(result, script.getResultType());
+    }
+
+    private void load(RedisConnection connection, DefaultRedisScript<?> script) {
+        connection.scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        Throwable cause = NestedExceptionUtils.getMostSpecificCause(e);
+        return cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T convert(Object result, Class<T> resultType) {
+        if (result instanceof byte[] && resultType == String.class) {
+            return (T) new String((byte[]) result, StandardCharsets.UTF_8);
+        }
+        return (T) result;
+    }
+}
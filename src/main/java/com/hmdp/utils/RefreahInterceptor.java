@@ -4,7 +4,7 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -15,7 +15,7 @@ import java.util.Map;
 /**
  * 全路径拦截器，刷新redis的token有效期
  */
-public class RefreahInterceptor implements HandlerInterceptor {
+public class RefreahInterceptor implements AsyncHandlerInterceptor {
     private StringRedisTemplate stringRedisTemplate;
 
     //使用构造方法注入bean
@@ -65,4 +65,10 @@ public class RefreahInterceptor implements HandlerInterceptor {
         //移除用户
         UserHolder.removeUser();
     }
+
+    @Override
+    //异步请求（长轮询）的第一次分派不会调用 afterCompletion，在这里移除用户，避免线程复用时串号
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserHolder.removeUser();
+    }
 }
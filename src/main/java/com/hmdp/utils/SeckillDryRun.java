@@ -0,0 +1,422 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.DryRunReport;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_DRY_RUN_PREFIX;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 秒杀演练
+ * <p>
+ * 在监控端口上 POST /actuator/seckilldryrun 触发，GET 查看结果。按真实秒杀券的库存、限购和分段配置，
+ * 在 dryrun: 前缀的影子 key 里克隆一张券（hash tag 不变，和真实 key 在同一个 slot），
+ * 以目标 RPS 用随机的虚拟用户走一遍真实链路：IdGenerator 取号、seckill.lua、stream 消费、批量 INSERT，
+ * 订单写入影子表 tb_voucher_order_dryrun，不碰真实库存和订单，也不进待支付队列。
+ * 结束后统计吞吐、脚本和落库耗时、Redis CPU 和消费积压，最后删除影子 key 和影子表里的订单。
+ * 同一时间只能有一个演练。
+ * </p>
+ */
+@Slf4j
+@Component
+@Endpoint(id = "seckilldryrun")
+public class SeckillDryRun {
+
+    private static final String[] RESULTS = {"ok", "soldOut", "limit", "notStarted", "ended", "notEnough"};
+
+    /**
+     * 积压采样间隔
+     */
+    private static final long LAG_SAMPLE_MILLIS = 100;
+
+    /**
+     * 发完请求后等待消费完积压的最长时间
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = 60000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    @Resource
+    private IdGenerator idGenerator;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile DryRunReport lastReport;
+
+    /**
+     * 最近一次演练的结果，进行中时是当前进度
+     */
+    @ReadOperation
+    public DryRunReport report() {
+        return lastReport;
+    }
+
+    /**
+     * 开始演练，立即返回，在后台线程执行
+     * @param voucherId 要克隆的秒杀券
+     * @param rps 目标每秒请求数
+     * @param durationSeconds 发请求的时长
+     * @param users 虚拟用户数，传 0 时是库存的 2 倍
+     * @param stock 克隆券的库存，传 0 时取真实库存
+     * @param threads 发请求的线程数，传 0 时是 64
+     */
+    @WriteOperation
+    public DryRunReport start(long voucherId, int rps, int durationSeconds, int users, int stock, int threads) {
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            throw new IllegalArgumentException("秒杀券不存在: " + voucherId);
+        }
+        if (rps <= 0 || durationSeconds <= 0) {
+            throw new IllegalArgumentException("rps 和 durationSeconds 必须大于 0");
+        }
+        if (users < 0 || stock < 0 || threads < 0) {
+            throw new IllegalArgumentException("users、stock、threads 不能小于 0");
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("已有演练在进行");
+        }
+        DryRunReport report = new DryRunReport();
+        report.setState("running");
+        report.setVoucherId(voucherId);
+        report.setStock(stock > 0 ? stock : Math.max(voucher.getStock(), 0));
+        report.setUsers(users > 0 ? users : Math.max(report.getStock() * 2, 1));
+        report.setTargetRps(rps);
+        report.setDurationSeconds(durationSeconds);
+        report.setStartedAt(LocalDateTime.now());
+        lastReport = report;
+        int limit = voucher.getLimitPerUser() == null ? 1 : voucher.getLimitPerUser();
+        int senders = threads > 0 ? threads : 64;
+        Thread thread = new Thread(() -> {
+            try {
+                new Run(report, limit, senders).execute();
+                report.setState("finished");
+            } catch (Exception e) {
+                log.error("秒杀演练失败, voucherId={}", voucherId, e);
+                report.setState("failed");
+                report.setError(e.toString());
+            } finally {
+                report.setFinishedAt(LocalDateTime.now());
+                running.set(false);
+            }
+        }, "seckill-dry-run");
+        thread.start();
+        return report;
+    }
+
+    /**
+     * 一次演练
+     */
+    private class Run {
+
+        private final DryRunReport report;
+        private final long voucherId;
+        private final int segments;
+        private final int buckets;
+        private final int limit;
+        private final int senders;
+
+        private final String voucherKey;
+        private final String statusKey;
+        private final String streamKey;
+        private final List<String> stockKeys = new ArrayList<>();
+
+        private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        private final Timer scriptTimer = Timer.builder("dryrun.script").publishPercentiles(0.5, 0.99).register(registry);
+        private final Timer orderTimer = Timer.builder("dryrun.order").publishPercentiles(0.5, 0.99).register(registry);
+
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLongArray results = new AtomicLongArray(RESULTS.length);
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong persisted = new AtomicLong();
+        private final AtomicLong maxLag = new AtomicLong();
+
+        private volatile boolean consuming = true;
+
+        Run(DryRunReport report, int limit, int senders) {
+            this.report = report;
+            this.voucherId = report.getVoucherId();
+            this.segments = seckillKeys.segmentsFor(report.getStock());
+            this.buckets = seckillKeys.bucketsFor(report.getStock());
+            this.limit = limit;
+            this.senders = senders;
+            this.voucherKey = SECKILL_DRY_RUN_PREFIX + seckillKeys.voucherKey(voucherId);
+            this.statusKey = SECKILL_DRY_RUN_PREFIX + seckillKeys.statusKey(voucherId);
+            this.streamKey = SECKILL_DRY_RUN_PREFIX + seckillKeys.streamKeyOf(voucherId);
+            for (String key : seckillKeys.stockKeys(voucherId, segments)) {
+                stockKeys.add(SECKILL_DRY_RUN_PREFIX + key);
+            }
+        }
+
+        void execute() throws InterruptedException {
+            ExecutorService consumers = null;
+            try {
+                // 1.克隆秒杀券到影子 key，创建影子 stream 的消费者组
+                setUp();
+                // 2.启动消费线程和积压采样
+                int consumerThreads = seckillProperties.getConsumerThreads();
+                consumers = Executors.newFixedThreadPool(consumerThreads + 1, ThreadUtil.newNamedThreadFactory("seckill-dry-run-consumer-", false));
+                for (int i = 0; i < consumerThreads; i++) {
+                    String name = "dryrun-" + i;
+                    consumers.submit(() -> consume(name));
+                }
+                consumers.submit(this::sampleLag);
+                // 3.按目标速率发请求，同时记下 Redis CPU
+                double cpuBefore = redisCpuSeconds();
+                long begin = System.nanoTime();
+                send();
+                long sentNanos = System.nanoTime() - begin;
+                // 4.等消费完积压
+                long drainBegin = System.nanoTime();
+                long deadline = drainBegin + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+                while (persisted.get() < results.get(0) && System.nanoTime() < deadline) {
+                    Thread.sleep(LAG_SAMPLE_MILLIS);
+                }
+                long drainNanos = System.nanoTime() - drainBegin;
+                double cpuSeconds = redisCpuSeconds() - cpuBefore;
+                long totalNanos = System.nanoTime() - begin;
+                // 5.汇总
+                fill(sentNanos, totalNanos, drainNanos, cpuSeconds);
+            } finally {
+                consuming = false;
+                if (consumers != null) {
+                    consumers.shutdown();
+                    consumers.awaitTermination(seckillProperties.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                }
+                cleanUp();
+            }
+        }
+
+        private void setUp() {
+            long now = System.currentTimeMillis();
+            Map<String, String> voucher = new HashMap<>(4);
+            voucher.put("begin", String.valueOf(now - 1000));
+            voucher.put("end", String.valueOf(now + TimeUnit.SECONDS.toMillis(report.getDurationSeconds()) + DRAIN_TIMEOUT_MILLIS));
+            voucher.put("limit", String.valueOf(limit));
+            voucher.put("sold", "0");
+            stringRedisTemplate.opsForHash().putAll(voucherKey, voucher);
+            int[] shares = SeckillKeys.split(report.getStock(), segments);
+            Map<String, String> stocks = new HashMap<>(segments);
+            for (int i = 0; i < segments; i++) {
+                stocks.put(stockKeys.get(i), String.valueOf(shares[i]));
+            }
+            stringRedisTemplate.opsForValue().multiSet(stocks);
+            try {
+                stringRedisTemplate.opsForStream().createGroup(streamKey, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+            } catch (RedisSystemException e) {
+                // 上次演练异常退出留下的组，清理时会一起删除
+                if (!StrUtil.contains(e.getMostSpecificCause().getMessage(), "BUSYGROUP")) {
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * 按目标速率把请求交给发送线程，第 i 个请求在开始后 i / rps 秒发出
+         */
+        private void send() throws InterruptedException {
+            ExecutorService executor = Executors.newFixedThreadPool(senders, ThreadUtil.newNamedThreadFactory("seckill-dry-run-", false));
+            long total = (long) report.getTargetRps() * report.getDurationSeconds();
+            long intervalNanos = TimeUnit.SECONDS.toNanos(1) / report.getTargetRps();
+            long begin = System.nanoTime();
+            for (long i = 0; i < total; i++) {
+                long wait = begin + i * intervalNanos - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                executor.execute(this::seckill);
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * 和 VoucherOrderServiceImpl#setkillVoucher 一样：取订单号，执行秒杀脚本，只是 key 换成影子 key
+         */
+        private void seckill() {
+            long userId = ThreadLocalRandom.current().nextLong(1, report.getUsers() + 1L);
+            try {
+                long orderId = idGenerator.nextId("order");
+                List<String> keys = new ArrayList<>(stockKeys.size() + 4);
+                keys.add(voucherKey);
+                keys.add(SECKILL_DRY_RUN_PREFIX + seckillKeys.orderBucketKey(voucherId, (int) Math.floorMod(userId, (long) buckets), buckets));
+                keys.add(statusKey);
+                keys.add(streamKey);
+                keys.addAll(stockKeys);
+                long start = System.nanoTime();
+                Long result = redisScriptRegistry.execute(RedisScriptRegistry.SECKILL, keys,
+                        String.valueOf(voucherId), String.valueOf(userId), String.valueOf(orderId), "1");
+                scriptTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                results.incrementAndGet(result.intValue());
+            } catch (Exception e) {
+                errors.incrementAndGet();
+            } finally {
+                requests.incrementAndGet();
+            }
+        }
+
+        /**
+         * 和订单消费者一样：XREADGROUP 凑批，批量 INSERT（写影子表），XACK
+         */
+        private void consume(String name) {
+            Consumer consumer = Consumer.from(SECKILL_ORDER_GROUP, name);
+            StreamReadOptions options = StreamReadOptions.empty()
+                    .count(seckillProperties.getBatchSize())
+                    .block(Duration.ofMillis(LAG_SAMPLE_MILLIS));
+            while (consuming) {
+                try {
+                    @SuppressWarnings("unchecked")
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream()
+                            .read(consumer, options, StreamOffset.create(streamKey, ReadOffset.lastConsumed()));
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+                    RecordId[] ids = new RecordId[list.size()];
+                    for (int i = 0; i < list.size(); i++) {
+                        voucherOrders.add(BeanUtil.fillBeanWithMap(list.get(i).getValue(), new VoucherOrder(), true));
+                        ids[i] = list.get(i).getId();
+                    }
+                    voucherOrderMapper.insertBatchDryRun(voucherOrders);
+                    stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, ids);
+                    persisted.addAndGet(list.size());
+                    long now = System.currentTimeMillis();
+                    for (MapRecord<String, Object, Object> record : list) {
+                        orderTimer.record(Math.max(now - record.getId().getTimestamp(), 0), TimeUnit.MILLISECONDS);
+                    }
+                } catch (Exception e) {
+                    log.error("演练订单消费异常", e);
+                    ThreadUtil.sleep(LAG_SAMPLE_MILLIS);
+                }
+            }
+        }
+
+        /**
+         * 积压 = 脚本成功数 - 已落库数
+         */
+        private void sampleLag() {
+            while (consuming) {
+                maxLag.accumulateAndGet(results.get(0) - persisted.get(), Math::max);
+                ThreadUtil.sleep(LAG_SAMPLE_MILLIS);
+            }
+        }
+
+        private double redisCpuSeconds() {
+            Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection -> connection.info("cpu"));
+            if (info == null) {
+                return 0;
+            }
+            return Double.parseDouble(info.getProperty("used_cpu_user", "0"))
+                    + Double.parseDouble(info.getProperty("used_cpu_sys", "0"));
+        }
+
+        private void fill(long sentNanos, long totalNanos, long drainNanos, double cpuSeconds) {
+            long total = requests.get();
+            report.setRequests(total);
+            report.setSucceeded(results.get(0));
+            for (int i = 1; i < RESULTS.length; i++) {
+                if (results.get(i) > 0) {
+                    report.getFailed().put(RESULTS[i], results.get(i));
+                }
+            }
+            report.setErrors(errors.get());
+            report.setAchievedRps(total * 1e9 / sentNanos);
+            report.setPersisted(persisted.get());
+            report.setPersistedPerSecond(persisted.get() * 1e9 / totalNanos);
+            report.setScriptP50Millis(percentileMillis(scriptTimer, 0.5));
+            report.setScriptP99Millis(percentileMillis(scriptTimer, 0.99));
+            report.setOrderP50Millis(percentileMillis(orderTimer, 0.5));
+            report.setOrderP99Millis(percentileMillis(orderTimer, 0.99));
+            report.setRedisCpuMillis(cpuSeconds * 1000);
+            report.setRedisCpuMicrosPerRequest(total == 0 ? 0 : cpuSeconds * 1e6 / total);
+            report.setMaxLag(maxLag.get());
+            report.setDrainMillis(TimeUnit.NANOSECONDS.toMillis(drainNanos));
+        }
+
+        private double percentileMillis(Timer timer, double percentile) {
+            for (ValueAtPercentile value : timer.takeSnapshot().percentileValues()) {
+                if (value.percentile() == percentile) {
+                    return value.value(TimeUnit.MILLISECONDS);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * 删除所有影子 key 和影子表里的订单
+         */
+        private void cleanUp() {
+            try {
+                List<String> keys = new ArrayList<>(stockKeys);
+                keys.add(voucherKey);
+                keys.add(statusKey);
+                keys.add(streamKey);
+                for (int i = 0; i < buckets; i++) {
+                    keys.add(SECKILL_DRY_RUN_PREFIX + seckillKeys.orderBucketKey(voucherId, i, buckets));
+                }
+                for (int from = 0; from < keys.size(); from += 1000) {
+                    stringRedisTemplate.delete(keys.subList(from, Math.min(from + 1000, keys.size())));
+                }
+                voucherOrderMapper.deleteDryRun(voucherId);
+            } catch (Exception e) {
+                log.error("清理演练数据失败, voucherId={}", voucherId, e);
+            }
+        }
+    }
+}
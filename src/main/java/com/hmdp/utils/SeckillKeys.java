@@ -0,0 +1,281 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀相关的 key 计算
+ * <p>
+ * 优惠券按 id 取模落到 stream 分区 p，它的库存、用户已购件数和 stream 分区都带上 {p} 这个 hash tag，
+ * 保证秒杀脚本声明的所有 KEYS 在 Redis Cluster 中处于同一个 slot。
+ * 库存分段也带同一个 tag，所以分段只是把对单个库存 key 的争用拆开，同一张券的全部分段仍在一个 slot、一个节点上，
+ * 不能把热点券分散到多个节点；要分散只能靠 stream-partitions 让不同的券落到不同的 slot。
+ * 分段数和分桶数创建秒杀券时按库存算好记在 tb_seckill_voucher，库存 key 丢失后重建也沿用；
+ * 重建时仍会在 seckill:layout 频道广播，各节点清掉本地缓存的分段数、分桶数后重新从 Redis 读取。
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillKeys implements MessageListener {
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 优惠券id -> 库存分段数
+     */
+    private final Map<Long, Integer> segmentsCache = new ConcurrentHashMap<>();
+
+    /**
+     * 优惠券id -> 用户已购件数哈希的分桶数
+     */
+    private final Map<Long, Integer> bucketsCache = new ConcurrentHashMap<>();
+
+    /**
+     * 优惠券订单落在哪个 stream 分区：按优惠券 id 取模，同一张券的订单始终在同一个分区
+     */
+    public int partitionOf(long voucherId) {
+        return (int) Math.floorMod(voucherId, (long) seckillProperties.getStreamPartitions());
+    }
+
+    /**
+     * 分区对应的 stream key
+     */
+    public String streamKey(int partition) {
+        return SECKILL_ORDER_STREAM_KEY + ":" + tag(partition);
+    }
+
+    /**
+     * 分区的归档进度（已归档的最后一条消息 id）
+     */
+    public String archiveKey(int partition) {
+        return SECKILL_ORDER_ARCHIVE_KEY + ":" + tag(partition);
+    }
+
+    /**
+     * 分区的待支付订单 ZSET，score 是支付截止时间
+     */
+    public String unpaidKey(int partition) {
+        return SECKILL_UNPAID_KEY + tag(partition);
+    }
+
+    /**
+     * 所有分区的 stream key
+     */
+    public List<String> streamKeys() {
+        int partitions = seckillProperties.getStreamPartitions();
+        List<String> keys = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            keys.add(streamKey(p));
+        }
+        return keys;
+    }
+
+    /**
+     * 优惠券订单要写入的 stream key
+     */
+    public String streamKeyOf(long voucherId) {
+        return streamKey(partitionOf(voucherId));
+    }
+
+    /**
+     * 第 index 个消费线程负责的 stream：分区数不少于线程数时按 p % threads 分配，
+     * 否则多个线程共用同一个分区，由消费者组在它们之间分发消息
+     */
+    public List<String> streamKeysOfConsumer(int index, int threads) {
+        int partitions = seckillProperties.getStreamPartitions();
+        List<String> keys = new ArrayList<>();
+        for (int p = 0; p < partitions; p++) {
+            if (p % threads == index) {
+                keys.add(streamKey(p));
+            }
+        }
+        if (keys.isEmpty()) {
+            keys.add(streamKey(index % partitions));
+        }
+        return keys;
+    }
+
+    /**
+     * 记录优惠券库存分段数的 key，不存在时按 1 段处理
+     */
+    public String segmentsKey(long voucherId) {
+        return SECKILL_SEGMENTS_KEY + tag(partitionOf(voucherId)) + ":" + voucherId;
+    }
+
+    /**
+     * 第 segment 段库存的 key；只有一段时为 seckill:stock:{p}:id
+     * <p>
+     * 各段与券的其他 key 同一个 hash tag，秒杀脚本才能在一个 slot 内原子地跨段凑库存
+     * </p>
+     */
+    public String stockKey(long voucherId, int segment, int segments) {
+        String key = SECKILL_STOCK_KEY + tag(partitionOf(voucherId)) + ":" + voucherId;
+        return segments <= 1 ? key : key + ":" + segment;
+    }
+
+    /**
+     * 优惠券所有库存段的 key
+     */
+    public List<String> stockKeys(long voucherId) {
+        return stockKeys(voucherId, segmentsOf(voucherId));
+    }
+
+    /**
+     * 已知分段数时优惠券所有库存段的 key
+     */
+    public List<String> stockKeys(long voucherId, int segments) {
+        List<String> keys = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            keys.add(stockKey(voucherId, i, segments));
+        }
+        return keys;
+    }
+
+    /**
+     * 记录用户已购件数哈希分桶数的 key，不存在时按 1 桶处理
+     */
+    public String bucketsKey(long voucherId) {
+        return SECKILL_BUCKETS_KEY + tag(partitionOf(voucherId)) + ":" + voucherId;
+    }
+
+    /**
+     * 用户已购件数哈希的 key：按用户id取模分桶，只有一桶时为 seckill:order:{p}:id
+     */
+    public String orderKey(long voucherId, long userId) {
+        return orderBucketKey(voucherId, (int) Math.floorMod(userId, (long) bucketsOf(voucherId)), bucketsOf(voucherId));
+    }
+
+    /**
+     * 第 bucket 个用户已购件数哈希的 key
+     */
+    public String orderBucketKey(long voucherId, int bucket, int buckets) {
+        String key = SECKILL_ORDER_KEY + tag(partitionOf(voucherId)) + ":" + voucherId;
+        return buckets <= 1 ? key : key + ":" + bucket;
+    }
+
+    /**
+     * 订单状态哈希的 key
+     */
+    public String statusKey(long voucherId) {
+        return SECKILL_ORDER_STATUS_KEY + tag(partitionOf(voucherId)) + ":" + voucherId;
+    }
+
+    /**
+     * 排队取号计数器的 key
+     */
+    public String queueKey(long voucherId) {
+        return SECKILL_QUEUE_KEY + tag(partitionOf(voucherId)) + ":" + voucherId;
+    }
+
+    /**
+     * 秒杀券开始/结束时间哈希的 key
+     */
+    public String voucherKey(long voucherId) {
+        return SECKILL_VOUCHER_KEY + tag(partitionOf(voucherId)) + ":" + voucherId;
+    }
+
+    /**
+     * 优惠券的库存分段数，第一次查询后缓存在本地
+     */
+    public int segmentsOf(long voucherId) {
+        Integer segments = segmentsCache.computeIfAbsent(voucherId, id -> {
+            String value = stringRedisTemplate.opsForValue().get(segmentsKey(id));
+            // 不存在时不缓存，等秒杀券写入 Redis 后再读
+            return value == null ? null : Integer.valueOf(value);
+        });
+        return segments == null ? 1 : segments;
+    }
+
+    /**
+     * 创建秒杀券时记下分段数
+     */
+    public void cacheSegments(long voucherId, int segments) {
+        segmentsCache.put(voucherId, segments);
+    }
+
+    /**
+     * 用户已购件数哈希的分桶数，第一次查询后缓存在本地
+     */
+    public int bucketsOf(long voucherId) {
+        Integer buckets = bucketsCache.computeIfAbsent(voucherId, id -> {
+            String value = stringRedisTemplate.opsForValue().get(bucketsKey(id));
+            return value == null ? null : Integer.valueOf(value);
+        });
+        return buckets == null ? 1 : buckets;
+    }
+
+    /**
+     * 创建秒杀券时记下分桶数
+     */
+    public void cacheBuckets(long voucherId, int buckets) {
+        bucketsCache.put(voucherId, buckets);
+    }
+
+    /**
+     * 库存 key 重建后清掉各节点缓存的分段数和分桶数
+     */
+    public void evictLayout(long voucherId) {
+        segmentsCache.remove(voucherId);
+        bucketsCache.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_LAYOUT_CHANNEL, String.valueOf(voucherId));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            long voucherId = Long.parseLong(body);
+            segmentsCache.remove(voucherId);
+            bucketsCache.remove(voucherId);
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的秒杀券分段消息: {}", body);
+        }
+    }
+
+    /**
+     * 按库存算分段数：不超过配置的段数，也不超过库存
+     */
+    public int segmentsFor(int stock) {
+        return Math.max(1, Math.min(seckillProperties.getStockSegments(), stock));
+    }
+
+    /**
+     * 按库存算分桶数：购买用户数不超过库存，每桶平均不超过 bucketUsers 个用户
+     */
+    public int bucketsFor(int stock) {
+        int bucketUsers = Math.max(1, seckillProperties.getOrderBucketUsers());
+        return Math.max(1, (stock + bucketUsers - 1) / bucketUsers);
+    }
+
+    private static String tag(int partition) {
+        return "{" + partition + "}";
+    }
+
+    /**
+     * 把 total 尽量平均地拆成 segments 份，余数分给前几段
+     */
+    public static int[] split(int total, int segments) {
+        int[] shares = new int[segments];
+        for (int i = 0; i < segments; i++) {
+            shares[i] = total / segments + (i < total % segments ? 1 : 0);
+        }
+        return shares;
+    }
+}
@@ -0,0 +1,207 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.OrderStatusDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+
+/**
+ * 秒杀订单状态
+ * <p>
+ * 每张秒杀券一个哈希 seckill:status:{p}:voucherId，field 是订单id，value 是 状态:用户id。
+ * 秒杀脚本下单时写入排队中，订单消费者每批落库后一次 pipeline 改成已落库，恢复任务转入死信时改成失败，
+ * 超时未支付被取消时由取消脚本改成已取消，已取消和失败是终态，之后的写入不会覆盖（取消脚本靠它去重），并在 seckill:order:status 频道广播本批订单id，唤醒本节点上长轮询等待的请求。查询只读 Redis，不访问数据库。
+ * 每次写入都把过期时间刷新为秒杀结束一天后，与秒杀券信息一起过期，哈希过期后被重新写入也不会一直留着。
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatus implements MessageListener {
+
+    public static final int QUEUED = 0;
+    public static final int PERSISTED = 1;
+    public static final int FAILED = 2;
+    public static final int CANCELLED = 3;
+
+    private static final String[] NAMES = {"queued", "persisted", "failed", "cancelled"};
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    /**
+     * 订单id -> 等待它状态变化的请求
+     */
+    private final Map<Long, Queue<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * 优惠券id -> 状态哈希的过期时间（秒杀结束一天后），从 seckill:voucher 读出后缓存一会
+     */
+    private final Cache<Long, Long> expireAts = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    /**
+     * 一批订单改为同一个状态：每张券一次脚本写入并刷新过期时间，已取消或失败的不覆盖，最后一次 PUBLISH
+     */
+    public void update(List<VoucherOrder> voucherOrders, int status) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        Map<Long, List<String>> byVoucher = new HashMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            List<String> args = byVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>());
+            args.add(order.getId().toString());
+            args.add(order.getUserId().toString());
+        }
+        List<String> updated = new ArrayList<>(voucherOrders.size());
+        byVoucher.forEach((voucherId, orders) -> {
+            String[] args = new String[orders.size() + 2];
+            args[0] = String.valueOf(status);
+            args[1] = String.valueOf(expireAtOf(voucherId));
+            for (int i = 0; i < orders.size(); i++) {
+                args[i + 2] = orders.get(i);
+            }
+            List<?> ids = redisScriptRegistry.execute(RedisScriptRegistry.SECKILL_STATUS,
+                    Collections.singletonList(seckillKeys.statusKey(voucherId)), args);
+            if (ids != null) {
+                ids.forEach(id -> updated.add(id instanceof byte[]
+                        ? new String((byte[]) id, StandardCharsets.UTF_8) : id.toString()));
+            }
+        });
+        if (!updated.isEmpty()) {
+            // 只通知状态确实是新状态的订单，被跳过的订单等待方会按原来的终态返回
+            stringRedisTemplate.convertAndSend(SECKILL_ORDER_STATUS_CHANNEL, status + "|" + String.join(",", updated));
+        }
+    }
+
+    /**
+     * 状态哈希的过期时间：秒杀结束一天后；秒杀券信息已经过期时从现在起一天
+     */
+    private long expireAtOf(long voucherId) {
+        Long expireAt = expireAts.getIfPresent(voucherId);
+        if (expireAt != null) {
+            return expireAt;
+        }
+        Object end = stringRedisTemplate.opsForHash().get(seckillKeys.voucherKey(voucherId), "end");
+        if (end == null) {
+            return System.currentTimeMillis() + Duration.ofDays(1).toMillis();
+        }
+        expireAt = Long.parseLong(end.toString()) + Duration.ofDays(1).toMillis();
+        expireAts.put(voucherId, expireAt);
+        return expireAt;
+    }
+
+    /**
+     * 查询订单状态，订单不存在或不属于该用户时返回 null
+     */
+    public Integer get(long voucherId, long orderId, long userId) {
+        Object value = stringRedisTemplate.opsForHash().get(seckillKeys.statusKey(voucherId), String.valueOf(orderId));
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.toString().split(":");
+        return parts.length == 2 && parts[1].equals(String.valueOf(userId)) ? Integer.valueOf(parts[0]) : null;
+    }
+
+    /**
+     * 查询订单状态；wait 为 true 且仍在排队时挂起请求，状态变化或超时后再返回
+     */
+    public DeferredResult<Result> query(long voucherId, long orderId, long userId, boolean wait) {
+        DeferredResult<Result> result = new DeferredResult<>(seckillProperties.getStatusWaitTimeout().toMillis());
+        // 1.先读一次缓存
+        Integer status = get(voucherId, orderId, userId);
+        if (status == null) {
+            result.setResult(Result.fail("订单不存在"));
+            return result;
+        }
+        if (status != QUEUED || !wait || waiting.get() >= seckillProperties.getStatusMaxWaiters()) {
+            // 已有结果、不等待，或者本节点挂起的请求太多，直接返回当前状态
+            result.setResult(ok(orderId, status));
+            return result;
+        }
+        // 2.挂起，超时按排队中返回
+        result.onTimeout(() -> result.setResult(ok(orderId, QUEUED)));
+        result.onCompletion(() -> removeWaiter(orderId, result));
+        waiting.incrementAndGet();
+        waiters.computeIfAbsent(orderId, k -> new ConcurrentLinkedQueue<>()).add(result);
+        // 3.挂起前状态可能已经变了，广播已经错过，再读一次
+        status = get(voucherId, orderId, userId);
+        if (status != null && status != QUEUED) {
+            result.setResult(ok(orderId, status));
+        }
+        return result;
+    }
+
+    private void removeWaiter(long orderId, DeferredResult<Result> result) {
+        waiters.computeIfPresent(orderId, (k, queue) -> {
+            if (queue.remove(result)) {
+                waiting.decrementAndGet();
+            }
+            return queue.isEmpty() ? null : queue;
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            int separator = body.indexOf('|');
+            int status = Integer.parseInt(body.substring(0, separator));
+            for (String id : StrUtil.split(body.substring(separator + 1), ',')) {
+                long orderId = Long.parseLong(id);
+                Queue<DeferredResult<Result>> queue = waiters.get(orderId);
+                if (queue == null) {
+                    continue;
+                }
+                for (DeferredResult<Result> result : queue) {
+                    result.setResult(ok(orderId, status));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("无法识别的订单状态消息: {}", body);
+        }
+    }
+
+    private static Result ok(long orderId, int status) {
+        return Result.ok(new OrderStatusDTO(orderId, NAMES[status]));
+    }
+}
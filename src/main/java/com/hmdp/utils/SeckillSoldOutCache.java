@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地售罄标记
+ * <p>
+ * 秒杀脚本返回库存不足后在本地记下，并通过 pub/sub 通知其他节点，之后的请求直接在 JVM 内拒绝，不再访问 Redis。
+ * 标记带有效期，pub/sub 消息丢了也会在有效期后自动回源一次。
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutCache implements MessageListener {
+
+    private static final String SOLD_OUT = "soldout:";
+    private static final String RESET = "reset:";
+
+    /**
+     * 优惠券id -> 标记过期时间（毫秒）
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    /**
+     * 是否已售罄
+     */
+    public boolean isSoldOut(long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt > System.currentTimeMillis()) {
+            return true;
+        }
+        // 标记过期，放一次请求去 Redis 确认
+        soldOut.remove(voucherId, expireAt);
+        return false;
+    }
+
+    /**
+     * 标记售罄并广播，本节点第一次标记时才发布，避免并发请求同时广播
+     */
+    public void markSoldOut(long voucherId) {
+        if (soldOut.put(voucherId, expireAt()) == null) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId);
+        }
+    }
+
+    /**
+     * 补充库存后清除标记并广播
+     */
+    public void reset(long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESET + voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            if (body.startsWith(SOLD_OUT)) {
+                soldOut.put(Long.parseLong(body.substring(SOLD_OUT.length())), expireAt());
+            } else if (body.startsWith(RESET)) {
+                soldOut.remove(Long.parseLong(body.substring(RESET.length())));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的售罄消息: {}", body);
+        }
+    }
+
+    private long expireAt() {
+        return System.currentTimeMillis() + seckillProperties.getSoldOutTtl().toMillis();
+    }
+}
@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+
+/**
+ * Jackson Smile 二进制编码
+ * <p>
+ * 字段名和数字都是二进制，重复的字段名（例如列表里的每个元素）只写一次，比 JSON 小，编解码也快；
+ * 不写 null 字段，读取时忽略不认识的字段，实体增删字段后旧缓存仍可读。
+ * </p>
+ */
+@Component
+public class SmileCacheCodec implements CacheCodec {
+
+    public static final String NAME = "smile";
+
+    private final ObjectMapper objectMapper = new ObjectMapper(new SmileFactory())
+            .registerModule(new JavaTimeModule())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int id() {
+        return 1;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] data, Type type) {
+        try {
+            return objectMapper.readValue(data, objectMapper.constructType(type));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 雪花算法生成全局唯一ID，纯内存生成，不访问 Redis
+ * <p>
+ * 结构：0 | 1 | 40 位毫秒时间戳 | 10 位机器号 | 12 位序列号。
+ * 第 62 位固定为 1，ID 总是大于 RedisIdWorker 生成的 ID，两种生成器切换时不会冲突。
+ * 机器号启动时从 Redis 租用（SET NX PX），定时续约；时钟回拨时沿用上次的逻辑时间继续发号，不会重复。
+ * 通过 hmdp.id.type=snowflake 启用。
+ * </p>
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id.type", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdGenerator {
+
+    /**
+     * 开始时间戳（毫秒），与 RedisIdWorker 相同
+     */
+    public static final long BEGIN_MILLIS = RedisIdWorker.BEGIN_TIMESTAMP * 1000;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int WORKER_BITS = 10;
+    private static final int TIMESTAMP_BITS = 40;
+    public static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+    private static final long FLAG = 1L << (SEQUENCE_BITS + WORKER_BITS + TIMESTAMP_BITS);
+
+    private static final String WORKER_KEY = "id:worker:";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScriptRegistry redisScriptRegistry;
+
+    /**
+     * 机器号租约有效期
+     */
+    @Value("${hmdp.id.snowflake.lease-ttl:60s}")
+    private Duration leaseTtl = Duration.ofSeconds(60);
+
+    /**
+     * 租约持有者标识
+     */
+    private final String token = UUID.fastUUID().toString(true);
+
+    private volatile long workerId = -1;
+
+    /**
+     * 租约有效期截止时间，超过后停止发号，避免与接手该机器号的实例重复
+     */
+    private volatile long leaseExpireAt;
+
+    /**
+     * 逻辑时钟：时间戳 << 12 | 序列号
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdWorker() {
+    }
+
+    /**
+     * 不经过 Redis，直接指定机器号（测试、压测用）
+     */
+    SnowflakeIdWorker(long workerId) {
+        this.workerId = workerId;
+        this.leaseExpireAt = Long.MAX_VALUE;
+    }
+
+    @PostConstruct
+    public void init() {
+        lease();
+    }
+
+    @Override
+    public long nextId(String keyPrefix) {
+        long worker = workerId;
+        if (System.currentTimeMillis() > leaseExpireAt || worker < 0) {
+            throw new IllegalStateException("机器号租约已失效，暂停生成ID");
+        }
+        long now = System.currentTimeMillis() - BEGIN_MILLIS;
+        // 正常情况取当前毫秒、序列号从 0 开始；同一毫秒内、或者时钟回拨时在上一个值上加 1，
+        // 序列号用完会进位到时间戳，相当于借用下一毫秒
+        long next = state.updateAndGet(prev -> Math.max(now << SEQUENCE_BITS, prev + 1));
+        long timestamp = next >>> SEQUENCE_BITS;
+        long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+        return FLAG | timestamp << (SEQUENCE_BITS + WORKER_BITS) | worker << SEQUENCE_BITS | sequence;
+    }
+
+    /**
+     * 心跳续约，并记录已用到的时间戳，接手这个机器号的实例会从这里之后开始发号
+     */
+    @Scheduled(fixedDelayString = "${hmdp.id.snowflake.heartbeat:10000}")
+    public void heartbeat() {
+        long worker = workerId;
+        if (worker < 0) {
+            lease();
+            return;
+        }
+        try {
+            // 发命令前取时间：Redis 里的过期时间从它收到命令算起，回包慢或 GC 停顿都不能让本地租约更晚到期
+            long sentAt = System.currentTimeMillis();
+            Long renewed = redisScriptRegistry.execute(
+                    RedisScriptRegistry.LEASE_RENEW,
+                    Arrays.asList(leaseKey(worker), lastKey(worker)),
+                    token, String.valueOf(leaseTtl.toMillis()), String.valueOf(state.get() >>> SEQUENCE_BITS));
+            if (renewed != null && renewed == 1) {
+                leaseExpireAt = leaseDeadline(sentAt);
+                return;
+            }
+            // 租约已被别人拿走，换一个机器号
+            log.warn("机器号 {} 的租约已丢失，重新租用", worker);
+            workerId = -1;
+            lease();
+        } catch (Exception e) {
+            // Redis 暂时不可用：租约到期前继续发号，到期后 nextId 会拒绝
+            log.error("机器号 {} 续约失败", worker, e);
+        }
+    }
+
+    /**
+     * 从随机位置开始依次尝试 SET id:worker:{n} token NX PX ttl
+     */
+    private synchronized void lease() {
+        if (workerId >= 0) {
+            return;
+        }
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKER_ID + 1);
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            int candidate = (start + i) & MAX_WORKER_ID;
+            long sentAt = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(leaseKey(candidate), token, leaseTtl);
+            if (Boolean.TRUE.equals(success)) {
+                // 上一个持有者用到的时间戳，从它之后开始，防止时钟回拨后重复
+                String last = stringRedisTemplate.opsForValue().get(lastKey(candidate));
+                long lastTimestamp = last == null ? 0 : Long.parseLong(last);
+                state.updateAndGet(prev -> Math.max(prev, (lastTimestamp + 1) << SEQUENCE_BITS));
+                leaseExpireAt = leaseDeadline(sentAt);
+                workerId = candidate;
+                log.info("租用机器号 {}", candidate);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的机器号");
+    }
+
+    /**
+     * 本地租约截止时间：从发命令的时间算起，再留出有效期的十分之一作为余量，吸收节点间的时钟误差
+     */
+    private long leaseDeadline(long sentAt) {
+        long ttl = leaseTtl.toMillis();
+        return sentAt + ttl - ttl / 10;
+    }
+
+    private static String leaseKey(long worker) {
+        return WORKER_KEY + "{" + worker + "}";
+    }
+
+    private static String lastKey(long worker) {
+        return WORKER_KEY + "{" + worker + "}:last";
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import org.springframework.data.redis.connection.DefaultStringTuple;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 待支付订单队列
+ * <p>
+ * 每个 stream 分区一个 ZSET seckill:unpaid:{p}，member 是订单id，score 是支付截止时间（毫秒）。
+ * 订单落库后加入，取消任务按 score 从小到大取出到期的订单，处理完再删除，不扫描订单表。
+ * </p>
+ */
+@Component
+public class UnpaidOrderQueue {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    /**
+     * 一批刚落库的订单加入队列，截止时间为现在加 pay-timeout，每个分区一次 ZADD，都在一个 pipeline 里；
+     * 消息重投时重复加入只会推后截止时间
+     */
+    public void schedule(List<VoucherOrder> voucherOrders) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        double deadline = System.currentTimeMillis() + seckillProperties.getPayTimeout().toMillis();
+        Map<String, Set<StringRedisConnection.StringTuple>> byPartition = new HashMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            byPartition.computeIfAbsent(seckillKeys.unpaidKey(seckillKeys.partitionOf(order.getVoucherId())), k -> new HashSet<>())
+                    .add(new DefaultStringTuple(order.getId().toString(), deadline));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            byPartition.forEach(conn::zAdd);
+            return null;
+        });
+    }
+
+    /**
+     * 分区里已经到期的订单id，最早到期的在前
+     */
+    public List<Long> due(int partition, int limit) {
+        Set<String> members = stringRedisTemplate.opsForZSet().rangeByScore(
+                seckillKeys.unpaidKey(partition), 0, System.currentTimeMillis(), 0, limit);
+        List<Long> orderIds = new ArrayList<>();
+        if (members != null) {
+            for (String member : members) {
+                orderIds.add(Long.valueOf(member));
+            }
+        }
+        return orderIds;
+    }
+
+    /**
+     * 处理完的订单移出队列
+     */
+    public void remove(int partition, Collection<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().remove(seckillKeys.unpaidKey(partition),
+                orderIds.stream().map(String::valueOf).toArray());
+    }
+}
@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.WaitingRoomProperties;
+import com.hmdp.dto.QueuePositionDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀排队
+ * <p>
+ * 排队时对 seckill:queue:{p}:id 执行一次 INCR 拿到排队号，连同过期时间和签名一起作为排队凭证（号.过期时间.签名）发给客户端。
+ * 放行进度只由秒杀开始时间和放行速率算出：开始时放行前 admitBurst 个号，之后每秒放行 rate 个，
+ * 所以查询排队进度只需验签和计算，不访问 Redis（开始时间第一次查询后缓存在本地）。
+ * 轮到后发放带过期时间的放行令牌，下单接口只接受带有效令牌的请求。
+ * 凭证和令牌都绑定优惠券和用户、带过期时间，用 HMAC-SHA256 签名，不能转给别人用。
+ * </p>
+ */
+@Slf4j
+@Component
+public class WaitingRoom {
+
+    private static final String TICKET = "q";
+    private static final String ADMISSION = "a";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private WaitingRoomProperties waitingRoomProperties;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    /**
+     * 优惠券id -> 秒杀开始时间（毫秒）
+     */
+    private final Map<Long, Long> beginTimes = new ConcurrentHashMap<>();
+
+    private ThreadLocal<Mac> macs;
+
+    @PostConstruct
+    private void init() {
+        String secret = waitingRoomProperties.getSecret();
+        if (StrUtil.isBlank(secret)) {
+            secret = RandomUtil.randomString(32);
+            if (waitingRoomProperties.isEnabled()) {
+                log.warn("未配置 hmdp.waiting-room.secret，使用随机密钥，其他节点签发的排队凭证在本节点无效");
+            }
+        }
+        SecretKeySpec key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * 排队：一次 INCR 取号
+     */
+    public QueuePositionDTO enqueue(long voucherId, long userId) {
+        String key = seckillKeys.queueKey(voucherId);
+        Long position = stringRedisTemplate.opsForValue().increment(key);
+        if (position != null && position == 1) {
+            // 第一个排队的人设置过期时间，秒杀结束后号码不再有用
+            stringRedisTemplate.expire(key, waitingRoomProperties.getTicketTtl());
+        }
+        String expireAt = String.valueOf(System.currentTimeMillis() + waitingRoomProperties.getTicketTtl().toMillis());
+        return positionOf(voucherId, userId, position == null ? 0 : position, expireAt);
+    }
+
+    /**
+     * 查询排队进度，凭证无效时返回 null
+     */
+    public QueuePositionDTO check(long voucherId, long userId, String ticket) {
+        if (StrUtil.isBlank(ticket)) {
+            return null;
+        }
+        String[] parts = ticket.split("\\.");
+        if (parts.length != 3 || !StrUtil.isNumeric(parts[0]) || !StrUtil.isNumeric(parts[1])
+                || Long.parseLong(parts[1]) < System.currentTimeMillis()
+                || !verify(parts[2], TICKET, voucherId, userId, parts[0] + ":" + parts[1])) {
+            return null;
+        }
+        return positionOf(voucherId, userId, Long.parseLong(parts[0]), parts[1]);
+    }
+
+    /**
+     * 校验放行令牌：签名正确、属于这张券和这个用户、没有过期
+     */
+    public boolean isAdmitted(long voucherId, long userId, String token) {
+        if (StrUtil.isBlank(token)) {
+            return false;
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return false;
+        }
+        String expireAt = token.substring(0, dot);
+        return StrUtil.isNumeric(expireAt)
+                && Long.parseLong(expireAt) >= System.currentTimeMillis()
+                && verify(token.substring(dot + 1), ADMISSION, voucherId, userId, expireAt);
+    }
+
+    /**
+     * 客户端下次查询的间隔（秒），也是排队中查询结果的缓存时间
+     */
+    public long pollSeconds(QueuePositionDTO dto) {
+        long min = waitingRoomProperties.getMinPollInterval().getSeconds();
+        long max = waitingRoomProperties.getMaxPollInterval().getSeconds();
+        return Math.max(min, Math.min(max, dto.getWaitSeconds()));
+    }
+
+    private QueuePositionDTO positionOf(long voucherId, long userId, long position, String ticketExpireAt) {
+        QueuePositionDTO dto = new QueuePositionDTO();
+        dto.setPosition(position);
+        dto.setTicket(position + "." + ticketExpireAt + "."
+                + sign(TICKET, voucherId, userId, position + ":" + ticketExpireAt));
+        long now = System.currentTimeMillis();
+        Long begin = beginTimeOf(voucherId);
+        if (begin == null) {
+            // 还没预热，按最长间隔再来查
+            dto.setWaitSeconds(waitingRoomProperties.getMaxPollInterval().getSeconds());
+            return dto;
+        }
+        double rate = waitingRoomProperties.rateOf(voucherId);
+        if (rate <= 0) {
+            // 速率为 0 表示暂停放行，按最长间隔再来查
+            dto.setWaitSeconds(waitingRoomProperties.getMaxPollInterval().getSeconds());
+            return dto;
+        }
+        // 这个号的放行时间：前 admitBurst 个在开始时放行，之后每个号间隔 1/rate 秒
+        long behind = Math.max(position - waitingRoomProperties.getAdmitBurst(), 0);
+        long admitAt = begin + (long) Math.ceil(behind * 1000 / rate);
+        if (admitAt > now) {
+            dto.setWaitSeconds((admitAt - now + 999) / 1000);
+            return dto;
+        }
+        dto.setWaitSeconds(0L);
+        String expireAt = String.valueOf(now + waitingRoomProperties.getAdmissionTtl().toMillis());
+        dto.setAdmissionToken(expireAt + "." + sign(ADMISSION, voucherId, userId, expireAt));
+        return dto;
+    }
+
+    private Long beginTimeOf(long voucherId) {
+        return beginTimes.computeIfAbsent(voucherId, id -> {
+            Object begin = stringRedisTemplate.opsForHash().get(seckillKeys.voucherKey(id), "begin");
+            // 未预热时不缓存
+            return begin == null ? null : Long.valueOf(begin.toString());
+        });
+    }
+
+    private String sign(String type, long voucherId, long userId, String value) {
+        String data = type + ":" + voucherId + ":" + userId + ":" + value;
+        byte[] digest = macs.get().doFinal(data.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private boolean verify(String signature, String type, long voucherId, long userId, String value) {
+        return MessageDigest.isEqual(signature.getBytes(StandardCharsets.UTF_8),
+                sign(type, voucherId, userId, value).getBytes(StandardCharsets.UTF_8));
+    }
+}
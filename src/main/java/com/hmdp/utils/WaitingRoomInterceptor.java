@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * 排队放行拦截器：秒杀下单请求必须在 X-Admission-Token 请求头里带上这张券的有效放行令牌，
+ * 否则直接 403，不执行秒杀脚本；校验只做验签，不访问 Redis
+ */
+public class WaitingRoomInterceptor implements HandlerInterceptor {
+
+    public static final String ADMISSION_HEADER = "X-Admission-Token";
+
+    private final WaitingRoom waitingRoom;
+
+    //使用构造方法注入bean
+    public WaitingRoomInterceptor(WaitingRoom waitingRoom) {
+        this.waitingRoom = waitingRoom;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!"POST".equals(request.getMethod())) {
+            return true;
+        }
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String voucherId = variables == null ? null : variables.get("id");
+        UserDTO user = UserHolder.getUser();
+        if (user == null || !StrUtil.isNumeric(voucherId)
+                || !waitingRoom.isAdmitted(Long.parseLong(voucherId), user.getId(), request.getHeader(ADMISSION_HEADER))) {
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,14 @@
+--布隆过滤器添加
+--KEYS[1] 元数据hash  KEYS[2] 位图key  KEYS[3] 重建期间新增的id集合
+--ARGV[1] 位图版本  ARGV[2] id  ARGV[3..] 位偏移
+if (redis.call('hexists', KEYS[1], 'building') == 1) then
+    --正在重建，记下来由重建方补到新位图
+    redis.call('sadd', KEYS[3], ARGV[2])
+end
+if (redis.call('hget', KEYS[1], 'version') ~= ARGV[1]) then
+    return -1
+end
+for i = 3, #ARGV do
+    redis.call('setbit', KEYS[2], ARGV[i], 1)
+end
+return 1
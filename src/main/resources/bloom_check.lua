@@ -0,0 +1,13 @@
+--布隆过滤器判断
+--KEYS[1] 元数据hash  KEYS[2] 位图key
+--ARGV[1] 位图版本  ARGV[2..] 位偏移
+if (redis.call('hget', KEYS[1], 'version') ~= ARGV[1]) then
+    --本地缓存的版本已被重建替换
+    return -1
+end
+for i = 2, #ARGV do
+    if (redis.call('getbit', KEYS[2], ARGV[i]) == 0) then
+        return 0
+    end
+end
+return 1
@@ -0,0 +1,16 @@
+--布隆过滤器重建完成，切换到新位图
+--KEYS[1] 元数据hash  KEYS[2] 重建期间新增的id集合  KEYS[3] 旧位图key
+--ARGV[1] 重建标识  ARGV[2] 新版本  ARGV[3] 位数  ARGV[4] 哈希函数个数
+if (redis.call('hget', KEYS[1], 'building') ~= ARGV[1]) then
+    --重建已被取消或被别人接手
+    return -1
+end
+local pending = redis.call('scard', KEYS[2])
+if (pending > 0) then
+    --还有重建期间新增的id没补到新位图
+    return pending
+end
+redis.call('hset', KEYS[1], 'version', ARGV[2], 'bits', ARGV[3], 'hashes', ARGV[4])
+redis.call('hdel', KEYS[1], 'building')
+redis.call('del', KEYS[3])
+return 0
@@ -0,0 +1,10 @@
+--续约：租约仍属于自己时延长有效期，并记录已使用到的时间戳
+--KEYS[1] 租约key  KEYS[2] 最后时间戳key
+--ARGV[1] 持有者标识  ARGV[2] 有效期（毫秒）  ARGV[3] 已使用到的时间戳
+if (redis.call('get', KEYS[1]) ~= ARGV[1]) then
+    --租约已过期或被别人占用
+    return 0
+end
+redis.call('pexpire', KEYS[1], ARGV[2])
+redis.call('set', KEYS[2], ARGV[3])
+return 1
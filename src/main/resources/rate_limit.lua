@@ -0,0 +1,42 @@
+--1. 参数列表
+--KEYS[i] 令牌桶（哈希：tokens 剩余令牌，ts 上次更新时间毫秒）
+--ARGV[2i-1] 第 i 个桶每秒生成的令牌数，ARGV[2i] 第 i 个桶的容量
+--所有桶都有令牌时各扣一个并返回0，否则不扣任何桶，返回需要等待的毫秒数
+
+--2. 脚本业务
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local wait = 0
+local tokens = {}
+for i = 1, #KEYS do
+    local rate = tonumber(ARGV[2 * i - 1])
+    local burst = tonumber(ARGV[2 * i])
+    local bucket = redis.call('hmget', KEYS[i], 'tokens', 'ts')
+    local left = tonumber(bucket[1])
+    local ts = tonumber(bucket[2])
+    if (left == nil or ts == nil) then
+        --第一次访问，桶是满的
+        left = burst
+        ts = now
+    end
+    --按流逝的时间补充令牌
+    left = math.min(burst, left + math.max(0, now - ts) * rate / 1000)
+    tokens[i] = left
+    if (left < 1) then
+        wait = math.max(wait, math.ceil((1 - left) * 1000 / rate))
+    end
+end
+
+if (wait > 0) then
+    --被限流，不写任何 key
+    return wait
+end
+
+--扣令牌，桶补满之后 key 自然过期
+for i = 1, #KEYS do
+    local rate = tonumber(ARGV[2 * i - 1])
+    local burst = tonumber(ARGV[2 * i])
+    redis.call('hset', KEYS[i], 'tokens', tokens[i] - 1, 'ts', now)
+    redis.call('pexpire', KEYS[i], math.ceil(burst * 1000 / rate) + 1000)
+end
+return 0
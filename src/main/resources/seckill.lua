@@ -1,35 +1,87 @@
 --1. 参数列表
+--KEYS[1] 秒杀券信息 seckill:voucher:{p}:voucherId（begin、end、limit、sold）
+--KEYS[2] 用户已购件数 seckill:order:{p}:voucherId[:桶号]，field 是用户id
+--KEYS[3] 订单状态 seckill:status:{p}:voucherId
+--KEYS[4] 订单消息 stream stream.orders:{p}
+--KEYS[5..n] 库存段 seckill:stock:{p}:voucherId[:段号]
+--所有 key 带同一个 hash tag，在 Redis Cluster 中位于同一个 slot；
+--库存分段因此也在同一个 slot，只分摊单个 key 的争用，不分散到多个节点
+local voucherKey = KEYS[1]
+local orderKey = KEYS[2]
+local statusKey = KEYS[3]
+local streamKey = KEYS[4]
+local segments = #KEYS - 4
 --优惠卷ID
 local voucherId = ARGV[1]
 --用户ID
 local userId = ARGV[2]
 --订单ID
 local orderId = ARGV[3]
+--购买件数
+local quantity = tonumber(ARGV[4])
 
---2. 数据key
--- 库存key
-local stockKey = 'seckill:stock:' .. voucherId
---订单key
-local orderKey = 'seckill:order:' .. voucherId
+--2. 脚本业务
+--判断秒杀时间窗口（未预热的券按未开始处理）
+local voucher = redis.call('hmget', voucherKey, 'begin', 'end', 'limit')
+if (not voucher[1]) then
+    return 3
+end
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+if (now < tonumber(voucher[1])) then
+    --未开始，返回3
+    return 3
+end
+if (now > tonumber(voucher[2])) then
+    --已结束，返回4
+    return 4
+end
+
+--按用户id选择库存段，本段不够时依次从其余段凑，凑够为止
+local home = tonumber(userId) % segments
+local picks = {}
+local available = 0
+for i = 0, segments - 1 do
+    local key = KEYS[5 + (home + i) % segments]
+    local stock = tonumber(redis.call('get', key)) or 0
+    if (stock > 0) then
+        local take = math.min(stock, quantity - available)
+        picks[#picks + 1] = {key, take}
+        available = available + take
+        if (available >= quantity) then
+            break
+        end
+    end
+end
 
---3. 脚本业务
 --判断库存是否充足
-if(tonumber(redis.call('get',stockKey)) <= 0) then
-    --库存不足，返回1
+if (available == 0) then
+    --已售罄，返回1
     return 1
 end
+if (available < quantity) then
+    --剩余库存不够本次购买件数，返回5
+    return 5
+end
 
---判断用户是否下单
-if(redis.call('sismember',orderKey,userId) == 1) then
-    --存在，说明重复下单，返回2
+--判断是否超过每人限购件数（未配置时每人 1 件）
+local bought = tonumber(redis.call('hget', orderKey, userId)) or 0
+if (bought + quantity > (tonumber(voucher[3]) or 1)) then
+    --超过限购，返回2
     return 2
 end
 
 -- 扣库存
-redis.call('incrby',stockKey,-1)
--- 下单（保存用户）
-redis.call('sadd',orderKey,userId)
--- 发送消息到队列中  xadd stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd','stream.orders','*','userId',userId,'voucherId',voucherId,'id',orderId)
+for i = 1, #picks do
+    redis.call('incrby', picks[i][1], -picks[i][2])
+end
+-- 记录用户已购件数和总售出件数
+redis.call('hincrby', orderKey, userId, quantity)
+redis.call('hincrby', voucherKey, 'sold', quantity)
+-- 发送消息到队列中  xadd stream.orders:{p} * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId, 'quantity', quantity)
+-- 订单状态：排队中，秒杀结束一天后过期
+redis.call('hset', statusKey, orderId, '0:' .. userId)
+redis.call('pexpireat', statusKey, tonumber(voucher[2]) + 86400000)
 
-return 0
\ No newline at end of file
+return 0
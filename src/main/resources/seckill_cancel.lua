@@ -0,0 +1,44 @@
+--1. 参数列表
+--KEYS[1] 秒杀券信息 seckill:voucher:{p}:voucherId
+--KEYS[2] 订单状态 seckill:status:{p}:voucherId
+--KEYS[3..segments+2] 库存段 seckill:stock:{p}:voucherId[:段号]
+--KEYS[segments+3..n] 本批用到的用户已购件数哈希 seckill:order:{p}:voucherId[:桶号]
+--ARGV[1] 库存段数
+--ARGV[2] 退库存后的订单状态：3 超时取消，2 转入死信
+--ARGV[3..] 每个订单四个参数：订单id, 用户id, 件数, 用户所在哈希在 KEYS 中的下标
+local voucherKey = KEYS[1]
+local statusKey = KEYS[2]
+local segments = tonumber(ARGV[1])
+local finalStatus = ARGV[2]
+
+--2. 脚本业务
+--按订单状态去重：状态已是已取消（3）或失败（2）的不再退库存，重复执行不会多退；
+--状态不存在说明秒杀已经结束一天以上，不再退库存
+local returned = 0
+for i = 3, #ARGV, 4 do
+    local orderId = ARGV[i]
+    local userId = ARGV[i + 1]
+    local quantity = tonumber(ARGV[i + 2])
+    local orderKey = KEYS[tonumber(ARGV[i + 3])]
+    local status = redis.call('hget', statusKey, orderId)
+    local current = status and string.sub(status, 1, 2)
+    if (status and current ~= '3:' and current ~= '2:') then
+        --库存退回用户对应的段
+        redis.call('incrby', KEYS[3 + tonumber(userId) % segments], quantity)
+        --扣回用户已购件数，允许再次购买
+        if (redis.call('hincrby', orderKey, userId, -quantity) <= 0) then
+            redis.call('hdel', orderKey, userId)
+        end
+        redis.call('hincrby', voucherKey, 'sold', -quantity)
+        --订单状态：已取消或失败
+        redis.call('hset', statusKey, orderId, finalStatus .. ':' .. userId)
+        returned = returned + quantity
+    end
+end
+--状态哈希与秒杀券信息一起在秒杀结束一天后过期
+local endTime = redis.call('hget', voucherKey, 'end')
+if (returned > 0 and endTime) then
+    redis.call('pexpireat', statusKey, tonumber(endTime) + 86400000)
+end
+
+return returned
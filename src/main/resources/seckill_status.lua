@@ -0,0 +1,21 @@
+--批量写订单状态，已取消（3）或失败（2）的不再覆盖：它们是取消脚本退库存的去重依据
+--KEYS[1] 订单状态 seckill:status:{p}:voucherId
+--ARGV[1] 新状态  ARGV[2] 状态哈希的过期时间（毫秒时间戳）
+--ARGV[3..] 每个订单两个参数：订单id, 用户id
+--返回状态已是新状态的订单id，只通知这些订单
+local statusKey = KEYS[1]
+local newStatus = ARGV[1]
+local updated = {}
+for i = 3, #ARGV, 2 do
+    local orderId = ARGV[i]
+    local status = redis.call('hget', statusKey, orderId)
+    local current = status and string.sub(status, 1, 2)
+    if (current ~= '3:' and current ~= '2:') then
+        redis.call('hset', statusKey, orderId, newStatus .. ':' .. ARGV[i + 1])
+        updated[#updated + 1] = orderId
+    elseif (current == newStatus .. ':') then
+        updated[#updated + 1] = orderId
+    end
+end
+redis.call('pexpireat', statusKey, ARGV[2])
+return updated
@@ -0,0 +1,3 @@
+--KEYS[1] stream，ARGV[1] 最小保留 id
+--XTRIM MINID ~：删除 id 小于 ARGV[1] 的消息，按宏节点整块删除，返回删除条数（需要 Redis 6.2+）
+return redis.call('xtrim', KEYS[1], 'MINID', '~', ARGV[1])
@@ -0,0 +1,7 @@
+--释放锁：锁仍属于自己时才删除
+--KEYS[1] 锁key
+--ARGV[1] 持有者标识
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
@@ -0,0 +1,127 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.lang.ParameterizedTypeImpl;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.utils.CacheCodecs;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.SmileCacheCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.unit.DataSize;
+
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存编码对比：json（旧格式）、smile、smile + deflate，对象分别是单个 Shop 和 List&lt;ShopType&gt;
+ * <p>
+ * 编码后的字节数在 setup 时写日志，不需要 Redis，test-compile 后直接运行 main。
+ * </p>
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    @Param({"json", "smile", "smile-deflate"})
+    public String codec;
+
+    @Param({"shop", "shopTypes"})
+    public String payload;
+
+    private CacheCodecs cacheCodecs;
+
+    private Object value;
+
+    private Type type;
+
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        CacheProperties properties = new CacheProperties();
+        properties.setCodec(codec.startsWith("smile") ? SmileCacheCodec.NAME : JsonCacheCodec.NAME);
+        properties.setCompressThreshold("smile-deflate".equals(codec) ? DataSize.ofBytes(64) : DataSize.ofBytes(0));
+        cacheCodecs = new CacheCodecs(Arrays.asList(new JsonCacheCodec(), new SmileCacheCodec()), properties);
+        if ("shop".equals(payload)) {
+            value = shop();
+            type = Shop.class;
+        } else {
+            value = shopTypes();
+            type = new ParameterizedTypeImpl(new Type[]{ShopType.class}, null, List.class);
+        }
+        encoded = cacheCodecs.encode(value);
+        log.info("{}/{} bytes={}", codec, payload, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return cacheCodecs.encode(value);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return cacheCodecs.decode(encoded, type);
+    }
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,"
+                        + "https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+
+    private static List<ShopType> shopTypes() {
+        String[][] rows = {
+                {"美食", "/types/ms.png"}, {"KTV", "/types/KTV.png"}, {"丽人·美发", "/types/lrmf.png"},
+                {"健身运动", "/types/jsyd.png"}, {"按摩·足疗", "/types/amzl.png"}, {"美容SPA", "/types/spa.png"},
+                {"亲子游乐", "/types/qzyl.png"}, {"酒吧", "/types/jiuba.png"}, {"轰趴馆", "/types/hpg.png"},
+                {"美睫·美甲", "/types/mjmj.png"}
+        };
+        List<ShopType> types = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            types.add(new ShopType()
+                    .setId(i + 1L)
+                    .setName(rows[i][0])
+                    .setIcon(rows[i][1])
+                    .setSort(i + 1)
+                    .setCreateTime(LocalDateTime.of(2021, 12, 22, 20, 17, 47))
+                    .setUpdateTime(LocalDateTime.of(2021, 12, 23, 11, 24, 31)));
+        }
+        return types;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
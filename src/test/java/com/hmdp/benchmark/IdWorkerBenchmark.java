@@ -0,0 +1,76 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker（逐个 INCR / 号段）与 SnowflakeIdWorker 的对比
+ * <p>
+ * 需要一个本地 Redis（-Dredis.host / -Dredis.port，默认 127.0.0.1:6379），test-compile 后直接运行 main。
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class IdWorkerBenchmark {
+
+    @Param({"redis-incr", "redis-segment", "snowflake"})
+    public String type;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private IdGenerator idGenerator;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("snowflake".equals(type)) {
+            Constructor<SnowflakeIdWorker> constructor = SnowflakeIdWorker.class.getDeclaredConstructor(long.class);
+            constructor.setAccessible(true);
+            idGenerator = constructor.newInstance(1L);
+            return;
+        }
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379)));
+        connectionFactory.afterPropertiesSet();
+        RedisIdWorker worker = new RedisIdWorker();
+        ReflectionTestUtils.setField(worker, "stringRedisTemplate", new StringRedisTemplate(connectionFactory));
+        ReflectionTestUtils.setField(worker, "segmentSize", "redis-incr".equals(type) ? 1 : 1000);
+        idGenerator = worker;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Benchmark
+    public long nextId() {
+        return idGenerator.nextId("bench");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(IdWorkerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
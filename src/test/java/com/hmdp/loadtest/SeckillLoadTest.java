@@ -0,0 +1,281 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.client.RestTemplate;
+import redis.embedded.RedisServer;
+
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀压测：本地 Redis + H2（MySQL 模式），N 个用户并发抢一张秒杀券
+ * <p>
+ * 运行：mvn test -Ploadtest，参数用系统属性调整，例如
+ * -Dloadtest.users=5000 -Dloadtest.stock=1000 -Dloadtest.threads=128 -Dhmdp.seckill.stock-segments=8，
+ * -Dloadtest.quantity=3 时每单买 3 件、每人限购 3 件。
+ * 校验不超卖、不超过限购、落库订单与下单成功一一对应；
+ * 吞吐量、p50/p99 延迟和 stream.orders 消费完的时间写到 target/loadtest/seckill-时间.json，便于对比多次运行。
+ * </p>
+ */
+@Slf4j
+@Tag("loadtest")
+@ActiveProfiles("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@DirtiesContext
+class SeckillLoadTest {
+
+    private static final int USERS = Integer.getInteger("loadtest.users", 2000);
+    private static final int STOCK = Integer.getInteger("loadtest.stock", 500);
+    private static final int THREADS = Integer.getInteger("loadtest.threads", 64);
+    private static final int REQUESTS_PER_USER = Integer.getInteger("loadtest.requests-per-user", 2);
+    private static final int QUANTITY = Integer.getInteger("loadtest.quantity", 1);
+    private static final long DRAIN_TIMEOUT_MILLIS = Long.getLong("loadtest.drain-timeout", 60000L);
+
+    private static final int REDIS_PORT = NetUtil.getUsableLocalPort();
+    private static final RedisServer REDIS_SERVER = startRedis();
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @LocalServerPort
+    private int port;
+
+    private static RedisServer startRedis() {
+        try {
+            RedisServer server = new RedisServer(REDIS_PORT);
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new IllegalStateException("启动本地 Redis 失败", e);
+        }
+    }
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.host", () -> "127.0.0.1");
+        registry.add("spring.redis.port", () -> REDIS_PORT);
+        registry.add("spring.redis.password", () -> "");
+    }
+
+    /**
+     * 本地 Redis 交给容器关闭：在订单消费者停止之后才停，消费者能正常确认手上的批次
+     */
+    @TestConfiguration
+    static class LocalRedisConfig {
+
+        @Bean(destroyMethod = "stop")
+        public RedisServer localRedisServer() {
+            return REDIS_SERVER;
+        }
+    }
+
+    @Test
+    void seckillRace() throws Exception {
+        // 1.创建进行中的秒杀券，写入数据库和 Redis
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("压测秒杀券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(STOCK);
+        voucher.setLimitPerUser(QUANTITY);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        long voucherId = voucher.getId();
+
+        // 2.准备登录用户，token 直接写入 Redis
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long userId = 1; userId <= USERS; userId++) {
+                Map<String, String> user = new HashMap<>(4);
+                user.put("id", String.valueOf(userId));
+                user.put("nickName", "user_" + userId);
+                user.put("icon", "");
+                conn.hMSet(LOGIN_USER_KEY + tokenOf(userId), user);
+            }
+            return null;
+        });
+
+        // 3.每个用户请求 REQUESTS_PER_USER 次，打乱顺序后并发发出
+        List<Long> requests = new ArrayList<>(USERS * REQUESTS_PER_USER);
+        for (long userId = 1; userId <= USERS; userId++) {
+            for (int i = 0; i < REQUESTS_PER_USER; i++) {
+                requests.add(userId);
+            }
+        }
+        Collections.shuffle(requests, new Random(42));
+
+        RestTemplate restTemplate = new RestTemplate();
+        String url = "http://127.0.0.1:" + port + "/voucher-order/seckill/" + voucherId + "?quantity=" + QUANTITY;
+        long[] latencies = new long[requests.size()];
+        Map<Long, Long> orderOfUser = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(requests.size());
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < requests.size(); i++) {
+            int index = i;
+            long userId = requests.get(i);
+            executor.submit(() -> {
+                try {
+                    start.await();
+                    HttpHeaders headers = new HttpHeaders();
+                    headers.set("authorization", tokenOf(userId));
+                    long begin = System.nanoTime();
+                    Result result = restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(headers), Result.class).getBody();
+                    latencies[index] = System.nanoTime() - begin;
+                    if (result != null && Boolean.TRUE.equals(result.getSuccess())) {
+                        if (orderOfUser.putIfAbsent(userId, ((Number) result.getData()).longValue()) != null) {
+                            duplicates.incrementAndGet();
+                        }
+                    } else {
+                        String reason = result == null ? "empty" : result.getErrorMsg();
+                        failures.computeIfAbsent(reason, k -> new AtomicInteger()).incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNanos = System.nanoTime() - begin;
+        executor.shutdown();
+
+        // 4.等待 stream.orders 消费完：数据库订单数追上下单成功数
+        long drainBegin = System.nanoTime();
+        long persisted = countOrders(voucherId);
+        while (persisted < orderOfUser.size()
+                && System.nanoTime() - drainBegin < TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS)) {
+            Thread.sleep(20);
+            persisted = countOrders(voucherId);
+        }
+        long drainNanos = System.nanoTime() - drainBegin;
+
+        // 5.核对数据库和 Redis
+        List<VoucherOrder> orders = voucherOrderService.query().eq("voucher_id", voucherId).list();
+        Set<Long> orderedUsers = orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> orderIds = orders.stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        int remainingStock = 0;
+        for (String value : stringRedisTemplate.opsForValue().multiGet(seckillKeys.stockKeys(voucherId))) {
+            remainingStock += value == null ? 0 : Integer.parseInt(value);
+        }
+
+        // 6.先写结果文件，断言失败时也能看到数据
+        long[] sorted = Arrays.stream(latencies).filter(l -> l > 0).sorted().toArray();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("time", LocalDateTime.now().toString());
+        report.put("users", USERS);
+        report.put("stock", STOCK);
+        report.put("threads", THREADS);
+        report.put("requestsPerUser", REQUESTS_PER_USER);
+        report.put("quantity", QUANTITY);
+        report.put("stockSegments", seckillProperties.getStockSegments());
+        report.put("consumerThreads", seckillProperties.getConsumerThreads());
+        report.put("batchSize", seckillProperties.getBatchSize());
+        report.put("requests", requests.size());
+        report.put("succeeded", orderOfUser.size());
+        report.put("failed", failures);
+        report.put("errors", errors.get());
+        report.put("duplicates", duplicates.get());
+        report.put("persisted", orders.size());
+        report.put("remainingStock", remainingStock);
+        report.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        report.put("throughputPerSecond", requests.size() * 1e9 / elapsedNanos);
+        report.put("p50Millis", percentileMillis(sorted, 0.50));
+        report.put("p99Millis", percentileMillis(sorted, 0.99));
+        report.put("maxMillis", percentileMillis(sorted, 1.0));
+        report.put("drainMillis", TimeUnit.NANOSECONDS.toMillis(drainNanos));
+        File file = new File(System.getProperty("loadtest.output", "target/loadtest"),
+                "seckill-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss")) + ".json");
+        FileUtil.writeUtf8String(JSONUtil.toJsonPrettyStr(report), file);
+        log.info("压测结果: {}\n{}", file.getAbsolutePath(), JSONUtil.toJsonPrettyStr(report));
+
+        int expected = Math.min(STOCK / QUANTITY, USERS);
+        assertEquals(0, errors.get(), "请求异常");
+        assertEquals(0, duplicates.get(), "同一用户下单成功多次");
+        assertEquals(expected, orderOfUser.size(), "下单成功数应等于库存");
+        assertEquals(STOCK - expected * QUANTITY, remainingStock, "Redis 剩余库存不对");
+        assertEquals((long) expected * QUANTITY, orders.stream().mapToLong(VoucherOrder::getQuantity).sum(), "落库件数不对");
+        assertEquals(orderOfUser.size(), orders.size(), "落库订单数与下单成功数不一致（超时未消费完或丢单）");
+        assertEquals(orders.size(), orderedUsers.size(), "数据库里有同一用户的重复订单");
+        assertTrue(orderIds.containsAll(orderOfUser.values()), "下单成功的订单没有落库");
+    }
+
+    private long countOrders(long voucherId) {
+        return voucherOrderService.query().eq("voucher_id", voucherId).count();
+    }
+
+    private static String tokenOf(long userId) {
+        return "loadtest-" + userId;
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+}
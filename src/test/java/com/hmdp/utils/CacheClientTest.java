@@ -0,0 +1,384 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheClientTest {
+
+    private static final Duration TTL = Duration.ofMinutes(30);
+
+    private static EmbeddedRedis redis;
+
+    private RedisMessageListenerContainer container;
+
+    private ExecutorService executor;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        redis.flushAll();
+    }
+
+    @AfterEach
+    void stopContainer() throws Exception {
+        if (container != null) {
+            container.destroy();
+            container = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Test
+    void queryBatchKeepsInputOrder() {
+        CacheClient cacheClient = cacheClient(false);
+        // 2 在 Redis 里，3 是缓存的空值，1、4 要查库，其中 4 不存在
+        cacheClient.set(CACHE_SHOP_KEY + 2, shop(2), TTL);
+        redis.stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + 3, "");
+        List<Collection<Long>> loads = new ArrayList<>();
+
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, Arrays.asList(4L, 2L, 1L, 3L, 2L, 1L),
+                Shop.class, ids -> {
+                    loads.add(new ArrayList<>(ids));
+                    return shops(ids, 1L);
+                }, TTL);
+
+        assertEquals(6, shops.size());
+        assertNull(shops.get(0));
+        assertEquals(2L, shops.get(1).getId());
+        assertEquals(1L, shops.get(2).getId());
+        assertNull(shops.get(3));
+        assertEquals(2L, shops.get(4).getId());
+        assertEquals(1L, shops.get(5).getId());
+        // 重复的 id 只查一次库，未命中的一次批量查
+        assertEquals(1, loads.size());
+        assertEquals(Arrays.asList(4L, 1L), loads.get(0));
+        // 查到的写回 Redis，不存在的写空值
+        assertEquals("", redis.stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 4));
+        assertTrue(redis.stringRedisTemplate.getExpire(CACHE_SHOP_KEY + 4, TimeUnit.SECONDS) > 0);
+        assertNotNull(redis.stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 1));
+    }
+
+    @Test
+    void queryBatchHitsCacheOnSecondCall() {
+        CacheClient cacheClient = cacheClient(true);
+        List<Long> ids = Arrays.asList(3L, 1L, 2L);
+        cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class, misses -> shops(misses, 1L, 3L), TTL);
+
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class, misses -> {
+            throw new AssertionError("不应查库: " + misses);
+        }, TTL);
+
+        assertEquals(3L, shops.get(0).getId());
+        assertEquals(1L, shops.get(1).getId());
+        assertNull(shops.get(2));
+    }
+
+    @Test
+    void queryBatchEmpty() {
+        CacheClient cacheClient = cacheClient(false);
+
+        assertTrue(cacheClient.queryBatch(CACHE_SHOP_KEY, Collections.<Long>emptyList(), Shop.class, misses -> {
+            throw new AssertionError("不应查库: " + misses);
+        }, TTL).isEmpty());
+    }
+
+    @Test
+    void queryBatchWithoutTtl() {
+        CacheClient cacheClient = cacheClient(false);
+
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, Arrays.asList(1L, 2L), Shop.class,
+                misses -> shops(misses, 1L), null);
+
+        assertEquals(1L, shops.get(0).getId());
+        assertNull(shops.get(1));
+        // 查到的不过期，空值仍然带 TTL
+        assertEquals(-1L, redis.stringRedisTemplate.getExpire(CACHE_SHOP_KEY + 1));
+        assertTrue(redis.stringRedisTemplate.getExpire(CACHE_SHOP_KEY + 2) > 0);
+    }
+
+    @Test
+    void queryBatchTreatsNullLoadAsMissing() {
+        CacheClient cacheClient = cacheClient(false);
+
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, Arrays.asList(1L, 2L), Shop.class,
+                misses -> null, TTL);
+
+        assertEquals(Arrays.asList(null, null), shops);
+        assertEquals("", redis.stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 1));
+        assertEquals("", redis.stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + 2));
+    }
+
+    @Test
+    void localCacheServesWithoutRedis() {
+        CacheClient cacheClient = cacheClient(true);
+        cacheClient.set(CACHE_SHOP_KEY + 1, shop(1), TTL);
+        redis.stringRedisTemplate.delete(CACHE_SHOP_KEY + 1);
+
+        Shop cached = cacheClient.get(CACHE_SHOP_KEY + 1, Shop.class);
+
+        assertNotNull(cached);
+        assertEquals(1L, cached.getId());
+    }
+
+    @Test
+    void writesInvalidateOtherNodes() {
+        CacheClient nodeA = cacheClient(true);
+        CacheClient nodeB = cacheClient(true);
+        subscribe(nodeA, nodeB);
+        String key = CACHE_SHOP_KEY + 1;
+        nodeA.set(key, shop(1).setName("旧名字"), TTL);
+        assertEquals("旧名字", nodeB.<Shop>get(key, Shop.class).getName());
+
+        // A 更新后 B 的本地副本失效，下次读到 Redis 里的新值
+        nodeA.set(key, shop(1).setName("新名字"), TTL);
+        await(() -> "新名字".equals(nodeB.<Shop>get(key, Shop.class).getName()));
+
+        // A 删除后 B 也读不到
+        nodeA.delete(key);
+        await(() -> nodeB.get(key, Shop.class) == null);
+    }
+
+    @Test
+    void ownMessagesKeepLocalCopy() throws InterruptedException {
+        CacheClient nodeA = cacheClient(true);
+        CacheClient nodeB = cacheClient(true);
+        subscribe(nodeA, nodeB);
+        String key = CACHE_SHOP_KEY + 1;
+        // 旧值直接写 Redis，不产生失效消息，避免 B 的消息晚到删掉 A 的副本
+        redis.stringRedisTemplate.opsForValue().set(key, "{\"id\":1,\"name\":\"旧名字\"}");
+        assertEquals("旧名字", nodeB.<Shop>get(key, Shop.class).getName());
+        nodeA.set(key, shop(1).setName("新名字"), TTL);
+        // B 收到了 A 的失效消息
+        await(() -> "新名字".equals(nodeB.<Shop>get(key, Shop.class).getName()));
+        redis.stringRedisTemplate.delete(key);
+        Thread.sleep(200);
+
+        // 自己发出的失效消息不删自己刚写入的本地副本
+        assertNotNull(nodeA.get(key, Shop.class));
+    }
+
+    @Test
+    void concurrentMissesLoadOnce() throws Exception {
+        CacheClient cacheClient = cacheClient(false);
+        executor = Executors.newFixedThreadPool(16);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Shop>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return cacheClient.queryWithMutex(CACHE_SHOP_KEY, 1L, Shop.class, id -> {
+                    loads.incrementAndGet();
+                    sleep(200);
+                    return shop(id);
+                }, TTL);
+            }));
+        }
+
+        start.countDown();
+
+        for (Future<Shop> future : futures) {
+            assertEquals(1L, future.get(5, TimeUnit.SECONDS).getId());
+        }
+        assertEquals(1, loads.get());
+        assertFalse(redis.stringRedisTemplate.hasKey(LOCK_CACHE_KEY + CACHE_SHOP_KEY + 1));
+    }
+
+    @Test
+    void waitersFallBackToDbAfterLoadTimeout() throws Exception {
+        CacheClient cacheClient = cacheClient(false, Duration.ofMillis(200), new SimpleMeterRegistry());
+        executor = Executors.newSingleThreadExecutor();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Function<Long, Shop> dbFallback = id -> {
+            if (loads.incrementAndGet() == 1) {
+                // 第一次查库卡住，超过 load-timeout
+                loading.countDown();
+                await(release);
+            }
+            return shop(id);
+        };
+        Future<Shop> loader = executor.submit(() -> cacheClient.queryWithMutex(CACHE_SHOP_KEY, 1L, Shop.class, dbFallback, TTL));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        long begin = System.currentTimeMillis();
+        Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, 1L, Shop.class, dbFallback, TTL);
+
+        // 等待方超时后自己查库
+        assertTrue(System.currentTimeMillis() - begin >= 200);
+        assertEquals(1L, shop.getId());
+        assertEquals(2, loads.get());
+        release.countDown();
+        assertEquals(1L, loader.get(5, TimeUnit.SECONDS).getId());
+    }
+
+    @Test
+    void loaderExceptionReachesWaiters() throws Exception {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CacheClient cacheClient = cacheClient(false, Duration.ofSeconds(3), meterRegistry);
+        executor = Executors.newFixedThreadPool(2);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Function<Long, Shop> dbFallback = id -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            throw new IllegalStateException("数据库不可用");
+        };
+        Future<Shop> loader = executor.submit(() -> cacheClient.queryWithMutex(CACHE_SHOP_KEY, 1L, Shop.class, dbFallback, TTL));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        Future<Shop> waiter = executor.submit(() -> cacheClient.queryWithMutex(CACHE_SHOP_KEY, 1L, Shop.class, dbFallback, TTL));
+        // 等待方已经挂在重建线程的结果上
+        await(() -> meterRegistry.counter("cache.load.coalesced").count() == 1);
+
+        release.countDown();
+
+        ExecutionException loaderError = assertThrows(ExecutionException.class, () -> loader.get(5, TimeUnit.SECONDS));
+        ExecutionException waiterError = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        assertEquals("数据库不可用", loaderError.getCause().getMessage());
+        assertSame(loaderError.getCause(), waiterError.getCause());
+        assertEquals(1, loads.get());
+        // 异常不写缓存，锁也释放了
+        assertFalse(redis.stringRedisTemplate.hasKey(CACHE_SHOP_KEY + 1));
+        assertFalse(redis.stringRedisTemplate.hasKey(LOCK_CACHE_KEY + CACHE_SHOP_KEY + 1));
+    }
+
+    @Test
+    void lockIsReleasedOnlyByOwner() {
+        CacheClient cacheClient = cacheClient(false, Duration.ofMillis(200), new SimpleMeterRegistry());
+        String lockKey = LOCK_CACHE_KEY + CACHE_SHOP_KEY + 1;
+
+        // 查库期间锁过期，被另一个节点拿走，释放时不能删掉别人的锁
+        Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, 1L, Shop.class, id -> {
+            redis.stringRedisTemplate.opsForValue().set(lockKey, "other");
+            return shop(id);
+        }, TTL);
+
+        assertEquals(1L, shop.getId());
+        assertEquals("other", redis.stringRedisTemplate.opsForValue().get(lockKey));
+
+        // 锁一直被别人持有，超时后直接查库，不写缓存也不动别人的锁
+        String heldKey = LOCK_CACHE_KEY + CACHE_SHOP_KEY + 2;
+        redis.stringRedisTemplate.opsForValue().set(heldKey, "other");
+        Shop fallback = cacheClient.queryWithMutex(CACHE_SHOP_KEY, 2L, Shop.class, CacheClientTest::shop, TTL);
+
+        assertEquals(2L, fallback.getId());
+        assertEquals("other", redis.stringRedisTemplate.opsForValue().get(heldKey));
+        assertFalse(redis.stringRedisTemplate.hasKey(CACHE_SHOP_KEY + 2));
+    }
+
+    private void subscribe(CacheClient... clients) {
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redis.connectionFactory);
+        for (CacheClient client : clients) {
+            container.addMessageListener(client, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        }
+        container.afterPropertiesSet();
+        container.start();
+    }
+
+    private static CacheClient cacheClient(boolean local) {
+        return cacheClient(local, Duration.ofSeconds(3), new SimpleMeterRegistry());
+    }
+
+    private static CacheClient cacheClient(boolean local, Duration loadTimeout, MeterRegistry meterRegistry) {
+        CacheProperties properties = new CacheProperties();
+        properties.getLocal().setEnabled(local);
+        properties.setLoadTimeout(loadTimeout);
+        CacheCodecs codecs = new CacheCodecs(Arrays.asList(new JsonCacheCodec(), new SmileCacheCodec()), properties);
+        // 没有注册过滤器，所有 id 都视为可能存在
+        return new CacheClient(redis.stringRedisTemplate, properties, redis.redisScriptRegistry,
+                new BloomFilters(), codecs, meterRegistry);
+    }
+
+    private static Shop shop(long id) {
+        return new Shop().setId(id).setName("商铺" + id);
+    }
+
+    private static Map<Long, Shop> shops(Collection<Long> ids, Long... existing) {
+        Map<Long, Shop> shops = new HashMap<>();
+        for (Long id : ids) {
+            if (Arrays.asList(existing).contains(id)) {
+                shops.put(id, shop(id));
+            }
+        }
+        return shops;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS), "等待超时");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
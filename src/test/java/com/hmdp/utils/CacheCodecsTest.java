@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.ParameterizedTypeImpl;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheCodecsTest {
+
+    private static final Type SHOP_TYPES = new ParameterizedTypeImpl(new Type[]{ShopType.class}, null, List.class);
+
+    @Test
+    void jsonWriterKeepsLegacyFormat() {
+        CacheCodecs codecs = codecs(JsonCacheCodec.NAME, DataSize.ofBytes(1));
+        Shop shop = shop();
+
+        byte[] data = codecs.encode(shop);
+
+        // 旧格式不带版本头，也不压缩
+        assertEquals('{', data[0]);
+        Shop decoded = codecs.decode(data, Shop.class);
+        assertEquals(shop.getId(), decoded.getId());
+        assertEquals(shop.getName(), decoded.getName());
+    }
+
+    @Test
+    void smileReaderDecodesLegacyJson() {
+        CacheCodecs codecs = codecs(SmileCacheCodec.NAME, DataSize.ofBytes(0));
+        byte[] legacy = "{\"id\":1,\"name\":\"103茶餐厅\"}".getBytes(StandardCharsets.UTF_8);
+
+        Shop decoded = codecs.decode(legacy, Shop.class);
+
+        assertEquals(1L, decoded.getId());
+        assertEquals("103茶餐厅", decoded.getName());
+    }
+
+    @Test
+    void shortValueWithoutHeaderIsLegacy() {
+        CacheCodecs codecs = codecs(SmileCacheCodec.NAME, DataSize.ofBytes(0));
+
+        // 不足一个版本头长度的值按旧 JSON 读
+        Shop decoded = codecs.decode("{}".getBytes(StandardCharsets.UTF_8), Shop.class);
+        assertNotNull(decoded);
+        assertNull(decoded.getId());
+    }
+
+    @Test
+    void smileWritesHeaderWithoutDeflateBelowThreshold() {
+        CacheCodecs codecs = codecs(SmileCacheCodec.NAME, DataSize.ofKilobytes(64));
+        Shop shop = shop();
+
+        byte[] data = codecs.encode(shop);
+
+        assertEquals((byte) 0xFE, data[0]);
+        assertEquals(new SmileCacheCodec().id(), data[1]);
+        assertEquals(0, data[2]);
+        Shop decoded = codecs.decode(data, Shop.class);
+        assertEquals(shop.getName(), decoded.getName());
+        assertEquals(shop.getCreateTime(), decoded.getCreateTime());
+    }
+
+    @Test
+    void deflateRoundTripAboveThreshold() {
+        CacheCodecs plain = codecs(SmileCacheCodec.NAME, DataSize.ofBytes(0));
+        CacheCodecs deflate = codecs(SmileCacheCodec.NAME, DataSize.ofBytes(64));
+        List<ShopType> types = shopTypes(50);
+
+        byte[] uncompressed = plain.encode(types);
+        byte[] compressed = deflate.encode(types);
+
+        assertEquals(1, compressed[2] & 1);
+        assertTrue(compressed.length < uncompressed.length);
+        // 读取只看标记位，与读取方的阈值无关
+        List<ShopType> decoded = plain.decode(compressed, SHOP_TYPES);
+        assertEquals(types.size(), decoded.size());
+        for (int i = 0; i < types.size(); i++) {
+            assertEquals(types.get(i).getId(), decoded.get(i).getId());
+            assertEquals(types.get(i).getName(), decoded.get(i).getName());
+        }
+    }
+
+    @Test
+    void unknownCodecIdIsRejected() {
+        CacheCodecs codecs = codecs(SmileCacheCodec.NAME, DataSize.ofBytes(0));
+        byte[] data = codecs.encode(shop());
+        data[1] = 9;
+
+        assertThrows(IllegalStateException.class, () -> codecs.decode(data, Shop.class));
+    }
+
+    @Test
+    void duplicateCodecIdIsRejected() {
+        CacheProperties properties = new CacheProperties();
+        assertThrows(IllegalStateException.class,
+                () -> new CacheCodecs(Arrays.asList(new JsonCacheCodec(), new JsonCacheCodec()), properties));
+    }
+
+    @Test
+    void unknownWriterIsRejected() {
+        CacheProperties properties = new CacheProperties();
+        properties.setCodec("protobuf");
+        assertThrows(IllegalStateException.class,
+                () -> new CacheCodecs(Arrays.asList(new JsonCacheCodec(), new SmileCacheCodec()), properties));
+    }
+
+    private static CacheCodecs codecs(String writer, DataSize compressThreshold) {
+        CacheProperties properties = new CacheProperties();
+        properties.setCodec(writer);
+        properties.setCompressThreshold(compressThreshold);
+        return new CacheCodecs(Arrays.asList(new JsonCacheCodec(), new SmileCacheCodec()), properties);
+    }
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+    }
+
+    private static List<ShopType> shopTypes(int n) {
+        List<ShopType> types = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            types.add(new ShopType()
+                    .setId(i + 1L)
+                    .setName("美食" + i)
+                    .setIcon("/types/ms.png")
+                    .setSort(i + 1));
+        }
+        return types;
+    }
+}
@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.net.NetUtil;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+
+/**
+ * 单元测试用的本地 Redis，不启动 Spring 容器，连接和脚本注册表手工创建
+ */
+class EmbeddedRedis implements AutoCloseable {
+
+    private final RedisServer server;
+
+    final LettuceConnectionFactory connectionFactory;
+
+    final StringRedisTemplate stringRedisTemplate;
+
+    final RedisScriptRegistry redisScriptRegistry;
+
+    EmbeddedRedis() {
+        int port = NetUtil.getUsableLocalPort();
+        try {
+            server = new RedisServer(port);
+            server.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("启动本地 Redis 失败", e);
+        }
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        redisScriptRegistry = new RedisScriptRegistry();
+        ReflectionTestUtils.setField(redisScriptRegistry, "stringRedisTemplate", stringRedisTemplate);
+        redisScriptRegistry.loadAll();
+    }
+
+    void flushAll() {
+        stringRedisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.flushAll();
+            return null;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionFactory.destroy();
+        server.stop();
+    }
+}
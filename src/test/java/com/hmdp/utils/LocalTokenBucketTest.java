@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.RateLimitProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalTokenBucketTest {
+
+    @Test
+    void burstIsAvailableImmediately() {
+        LocalTokenBucket bucket = new LocalTokenBucket(1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire());
+        }
+        // 桶空了，每秒 1 个令牌，大约要等 1 秒
+        long wait = bucket.tryAcquire();
+        assertTrue(wait > 0 && wait <= 1000, "wait=" + wait);
+    }
+
+    @Test
+    void waitReflectsRate() {
+        LocalTokenBucket bucket = new LocalTokenBucket(100, 1);
+        assertEquals(0, bucket.tryAcquire());
+        long wait = bucket.tryAcquire();
+        assertTrue(wait > 0 && wait <= 10, "wait=" + wait);
+    }
+
+    @Test
+    void refillsOverTime() throws InterruptedException {
+        LocalTokenBucket bucket = new LocalTokenBucket(100, 2);
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+        Thread.sleep(50);
+        assertEquals(0, bucket.tryAcquire());
+    }
+
+    @Test
+    void refillDoesNotExceedBurst() throws InterruptedException {
+        LocalTokenBucket bucket = new LocalTokenBucket(1000, 3);
+        Thread.sleep(50);
+        int acquired = 0;
+        while (bucket.tryAcquire() == 0 && acquired < 100) {
+            acquired++;
+        }
+        // 50ms 生成约 50 个令牌，但桶里最多 3 个，取的过程中最多再补几个
+        assertTrue(acquired >= 3 && acquired < 10, "acquired=" + acquired);
+    }
+
+    @Test
+    void invalidRateIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new LocalTokenBucket(0, 5));
+        assertThrows(IllegalArgumentException.class, () -> new LocalTokenBucket(-1, 5));
+        assertThrows(IllegalArgumentException.class, () -> new LocalTokenBucket(Double.NaN, 5));
+        assertThrows(IllegalArgumentException.class, () -> new LocalTokenBucket(1, 0));
+    }
+
+    @Test
+    void zeroRateRouteIsRejected() {
+        RateLimitProperties properties = new RateLimitProperties();
+        RateLimitProperties.Route route = new RateLimitProperties.Route();
+        properties.getRoutes().add(route);
+        properties.validate();
+
+        route.setTargetRate(0);
+        assertThrows(IllegalArgumentException.class, properties::validate);
+        route.setTargetRate(1000);
+        route.setUserRate(0);
+        assertThrows(IllegalArgumentException.class, properties::validate);
+    }
+}
@@ -0,0 +1,173 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisBloomFilterTest {
+
+    private static final String NAME = "test";
+
+    private static final String META_KEY = BLOOM_FILTER_KEY + "{" + NAME + "}";
+
+    private static EmbeddedRedis redis;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = new EmbeddedRedis();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        redis.flushAll();
+    }
+
+    @Test
+    void optimalBits() {
+        // 100 万个、1% 误判率约 958 万位
+        long bits = RedisBloomFilter.optimalBits(1_000_000, 0.01, 1L << 32);
+        assertEquals(0, bits % 8);
+        assertTrue(Math.abs(bits - 9_585_059) < 8, "bits=" + bits);
+        assertEquals(7, RedisBloomFilter.optimalHashes(1_000_000, bits));
+        // 不超过上限，也不少于 64 位
+        assertEquals(1L << 20, RedisBloomFilter.optimalBits(1_000_000, 0.01, 1L << 20));
+        assertEquals(64, RedisBloomFilter.optimalBits(1, 0.5, 1L << 32));
+        assertEquals(1, RedisBloomFilter.optimalHashes(1000, 64));
+    }
+
+    @Test
+    void notReadyMightContainEverything() {
+        RedisBloomFilter filter = filter(false);
+        filter.refresh();
+
+        assertFalse(filter.isReady());
+        assertTrue(filter.mightContain(1L));
+        // 还没建好时添加不报错，建好时从数据库读到
+        filter.add(1L);
+    }
+
+    @Test
+    void rebuildHasNoFalseNegatives() {
+        RedisBloomFilter filter = filter(false);
+        filter.rebuild(pager(1, 10_000), 10_000, 0.01, 1L << 32);
+
+        assertTrue(filter.isReady());
+        for (long id = 1; id <= 10_000; id++) {
+            assertTrue(filter.mightContain(id), "id=" + id);
+        }
+        int falsePositives = 0;
+        for (long id = 100_001; id <= 110_000; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 300, "falsePositives=" + falsePositives);
+    }
+
+    @Test
+    void localCopyMatchesRedisBitmap() {
+        RedisBloomFilter builder = filter(false);
+        builder.rebuild(pager(1, 1000), 1000, 0.01, 1L << 32);
+        RedisBloomFilter filter = filter(true);
+        filter.refresh();
+        filter.add(5000L);
+
+        // 本地置位和 Redis SETBIT 的位顺序一致
+        Object bitmap = ReflectionTestUtils.getField(filter, "current");
+        byte[] local = (byte[]) ReflectionTestUtils.getField(bitmap, "data");
+        String version = (String) ReflectionTestUtils.getField(bitmap, "version");
+        byte[] key = (META_KEY + ":" + version).getBytes(StandardCharsets.UTF_8);
+        byte[] remote = redis.stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+        assertArrayEquals(remote, local);
+    }
+
+    @Test
+    void localCopyFallsBackToRedis() {
+        RedisBloomFilter nodeA = filter(true);
+        RedisBloomFilter nodeB = filter(true);
+        nodeA.rebuild(pager(1, 1000), 1000, 0.01, 1L << 32);
+        nodeB.refresh();
+
+        // A 新增的 id 没有通知到 B，B 本地判定不存在时以 Redis 为准
+        nodeA.add(5000L);
+        assertTrue(nodeB.mightContain(5000L));
+    }
+
+    @Test
+    void rebuildKeepsIdsAddedDuringRebuild() {
+        RedisBloomFilter other = filter(false);
+        RedisBloomFilter filter = filter(false);
+        filter.rebuild(pager(1, 1000), 1000, 0.01, 1L << 32);
+        other.refresh();
+
+        // 重建读数据库的过程中另一个节点新增了 id，写在旧位图上，同时记到 pending
+        Function<Long, List<Long>> pager = pager(1, 1000);
+        filter.rebuild(last -> {
+            if (last == 0) {
+                other.add(5000L);
+            }
+            return pager.apply(last);
+        }, 1000, 0.01, 1L << 32);
+
+        assertFalse(redis.stringRedisTemplate.hasKey(META_KEY + ":pending"));
+        assertFalse(redis.stringRedisTemplate.opsForHash().hasKey(META_KEY, "building"));
+        RedisBloomFilter fresh = filter(false);
+        fresh.refresh();
+        assertTrue(fresh.mightContain(5000L));
+        // other 持有的旧版本已失效，重新读取元数据后仍能判断
+        assertTrue(other.mightContain(5000L));
+    }
+
+    @Test
+    void failedRebuildKeepsOldBitmap() {
+        RedisBloomFilter filter = filter(false);
+        filter.rebuild(pager(1, 1000), 1000, 0.01, 1L << 32);
+        Object version = redis.stringRedisTemplate.opsForHash().get(META_KEY, "version");
+
+        assertThrows(IllegalStateException.class, () -> filter.rebuild(last -> {
+            throw new IllegalStateException("数据库不可用");
+        }, 1000, 0.01, 1L << 32));
+
+        assertEquals(version, redis.stringRedisTemplate.opsForHash().get(META_KEY, "version"));
+        assertFalse(redis.stringRedisTemplate.opsForHash().hasKey(META_KEY, "building"));
+        assertTrue(filter.mightContain(500L));
+    }
+
+    private static RedisBloomFilter filter(boolean localCopy) {
+        return new RedisBloomFilter(NAME, redis.stringRedisTemplate, redis.redisScriptRegistry, localCopy);
+    }
+
+    /**
+     * 按页返回 [from, to] 的 id，每页 500 个
+     */
+    private static Function<Long, List<Long>> pager(long from, long to) {
+        return last -> {
+            long start = Math.max(last + 1, from);
+            if (start > to) {
+                return Collections.emptyList();
+            }
+            List<Long> ids = new ArrayList<>();
+            for (long id = start; id <= Math.min(to, start + 499); id++) {
+                ids.add(id);
+            }
+            return ids;
+        };
+    }
+}
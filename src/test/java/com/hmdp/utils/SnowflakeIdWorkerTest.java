@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnowflakeIdWorkerTest {
+
+    private static final int THREADS = 64;
+    private static final int TOTAL = 10_000_000;
+
+    @Test
+    void idsAreUniqueAcrossThreads() throws InterruptedException {
+        SnowflakeIdWorker worker = new SnowflakeIdWorker(7);
+        int perThread = TOTAL / THREADS;
+        long[][] ids = new long[THREADS][perThread];
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            long[] out = ids[t];
+            es.submit(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        out[i] = worker.nextId("order");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        assertTrue(done.await(2, TimeUnit.MINUTES));
+        es.shutdown();
+
+        long[] all = new long[perThread * THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            // 单个线程内必须严格递增
+            for (int i = 1; i < perThread; i++) {
+                assertTrue(ids[t][i] > ids[t][i - 1]);
+            }
+            System.arraycopy(ids[t], 0, all, t * perThread, perThread);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertNotEquals(all[i - 1], all[i], "重复的ID: " + all[i]);
+        }
+    }
+
+    @Test
+    void idsDoNotOverlapRedisIdWorker() {
+        long id = new SnowflakeIdWorker(SnowflakeIdWorker.MAX_WORKER_ID).nextId("order");
+        // RedisIdWorker 的 ID 在 2056 年前小于 2^62
+        assertTrue(id >= 1L << 62);
+        assertTrue(id > 0);
+        assertEquals(SnowflakeIdWorker.MAX_WORKER_ID, (id >>> 12) & SnowflakeIdWorker.MAX_WORKER_ID);
+    }
+}
@@ -0,0 +1,156 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.WaitingRoomProperties;
+import com.hmdp.dto.QueuePositionDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WaitingRoomTest {
+
+    private static final long VOUCHER_ID = 10L;
+    private static final long USER_ID = 1010L;
+
+    private WaitingRoomProperties properties;
+
+    private WaitingRoom waitingRoom;
+
+    @BeforeEach
+    void setUp() {
+        properties = new WaitingRoomProperties();
+        properties.setSecret("test-secret");
+        properties.setAdmitBurst(10);
+        properties.setAdmitRate(10);
+        waitingRoom = waitingRoom(properties);
+        // 开始时间放进本地缓存，不访问 Redis
+        beginAt(waitingRoom, VOUCHER_ID, System.currentTimeMillis());
+    }
+
+    @Test
+    void ticketRoundTrip() {
+        QueuePositionDTO issued = ticket(25, System.currentTimeMillis() + 60_000);
+
+        QueuePositionDTO checked = waitingRoom.check(VOUCHER_ID, USER_ID, issued.getTicket());
+
+        assertNotNull(checked);
+        assertEquals(25L, checked.getPosition());
+        assertEquals(issued.getTicket(), checked.getTicket());
+        // 前 10 个立即放行，第 25 个再等 1.5 秒
+        assertEquals(2L, checked.getWaitSeconds());
+        assertNull(checked.getAdmissionToken());
+    }
+
+    @Test
+    void ticketIsBoundToVoucherAndUser() {
+        String ticket = ticket(25, System.currentTimeMillis() + 60_000).getTicket();
+        beginAt(waitingRoom, VOUCHER_ID + 1, System.currentTimeMillis());
+
+        assertNull(waitingRoom.check(VOUCHER_ID, USER_ID + 1, ticket));
+        assertNull(waitingRoom.check(VOUCHER_ID + 1, USER_ID, ticket));
+    }
+
+    @Test
+    void tamperedTicketIsRejected() {
+        String[] parts = ticket(25, System.currentTimeMillis() + 60_000).getTicket().split("\\.");
+
+        // 改小排队号
+        assertNull(waitingRoom.check(VOUCHER_ID, USER_ID, "1." + parts[1] + "." + parts[2]));
+        // 延长有效期
+        assertNull(waitingRoom.check(VOUCHER_ID, USER_ID, parts[0] + "." + (Long.parseLong(parts[1]) + 1) + "." + parts[2]));
+        assertNull(waitingRoom.check(VOUCHER_ID, USER_ID, parts[0] + "." + parts[1]));
+        assertNull(waitingRoom.check(VOUCHER_ID, USER_ID, "x." + parts[1] + "." + parts[2]));
+        assertNull(waitingRoom.check(VOUCHER_ID, USER_ID, ""));
+    }
+
+    @Test
+    void expiredTicketIsRejected() {
+        String ticket = ticket(25, System.currentTimeMillis() - 1).getTicket();
+
+        assertNull(waitingRoom.check(VOUCHER_ID, USER_ID, ticket));
+    }
+
+    @Test
+    void ticketFromAnotherSecretIsRejected() {
+        String ticket = ticket(25, System.currentTimeMillis() + 60_000).getTicket();
+        WaitingRoomProperties other = new WaitingRoomProperties();
+        other.setSecret("other-secret");
+        WaitingRoom otherRoom = waitingRoom(other);
+        beginAt(otherRoom, VOUCHER_ID, System.currentTimeMillis());
+
+        assertNull(otherRoom.check(VOUCHER_ID, USER_ID, ticket));
+    }
+
+    @Test
+    void admissionTokenIsIssuedWhenAdmitted() {
+        QueuePositionDTO dto = ticket(5, System.currentTimeMillis() + 60_000);
+
+        assertEquals(0L, dto.getWaitSeconds());
+        String token = dto.getAdmissionToken();
+        assertNotNull(token);
+        assertTrue(waitingRoom.isAdmitted(VOUCHER_ID, USER_ID, token));
+        assertFalse(waitingRoom.isAdmitted(VOUCHER_ID, USER_ID + 1, token));
+        assertFalse(waitingRoom.isAdmitted(VOUCHER_ID + 1, USER_ID, token));
+        String expireAt = token.substring(0, token.indexOf('.'));
+        assertFalse(waitingRoom.isAdmitted(VOUCHER_ID, USER_ID,
+                (Long.parseLong(expireAt) + 1000) + token.substring(token.indexOf('.'))));
+        assertFalse(waitingRoom.isAdmitted(VOUCHER_ID, USER_ID, null));
+        assertFalse(waitingRoom.isAdmitted(VOUCHER_ID, USER_ID, "." + token));
+    }
+
+    @Test
+    void expiredAdmissionTokenIsRejected() {
+        properties.setAdmissionTtl(java.time.Duration.ofMillis(-1));
+
+        String token = ticket(5, System.currentTimeMillis() + 60_000).getAdmissionToken();
+
+        assertFalse(waitingRoom.isAdmitted(VOUCHER_ID, USER_ID, token));
+    }
+
+    @Test
+    void zeroRatePausesAdmission() {
+        properties.getVoucherRates().put(VOUCHER_ID, 0.0);
+
+        // 开始时的 admitBurst 个和后面的号都不放行
+        for (long position : new long[]{1, 10, 11, 1000}) {
+            QueuePositionDTO dto = ticket(position, System.currentTimeMillis() + 60_000);
+            assertNull(dto.getAdmissionToken(), "position=" + position);
+            assertEquals(properties.getMaxPollInterval().getSeconds(), dto.getWaitSeconds());
+        }
+    }
+
+    @Test
+    void negativeRateIsRejected() {
+        WaitingRoomProperties invalid = new WaitingRoomProperties();
+        invalid.setAdmitRate(-1);
+        assertThrows(IllegalArgumentException.class, invalid::validate);
+
+        WaitingRoomProperties invalidVoucher = new WaitingRoomProperties();
+        invalidVoucher.getVoucherRates().put(VOUCHER_ID, Double.NaN);
+        assertThrows(IllegalArgumentException.class, invalidVoucher::validate);
+
+        WaitingRoomProperties paused = new WaitingRoomProperties();
+        paused.setAdmitRate(0);
+        paused.validate();
+    }
+
+    private QueuePositionDTO ticket(long position, long expireAt) {
+        return ReflectionTestUtils.invokeMethod(waitingRoom, "positionOf",
+                VOUCHER_ID, USER_ID, position, String.valueOf(expireAt));
+    }
+
+    private static WaitingRoom waitingRoom(WaitingRoomProperties properties) {
+        WaitingRoom waitingRoom = new WaitingRoom();
+        ReflectionTestUtils.setField(waitingRoom, "waitingRoomProperties", properties);
+        ReflectionTestUtils.invokeMethod(waitingRoom, "init");
+        return waitingRoom;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void beginAt(WaitingRoom waitingRoom, long voucherId, long begin) {
+        ((Map<Long, Long>) ReflectionTestUtils.getField(waitingRoom, "beginTimes")).put(voucherId, begin);
+    }
+}